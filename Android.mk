@@ -6,4 +6,10 @@ LOCAL_MODULE_TAGS := optional
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
 LOCAL_MODULE := com.tmobile.themes
 
+# Generates DAO classes from @DAO interfaces, such as StyleDAO.
+LOCAL_ANNOTATION_PROCESSORS := com.tmobile.themes.daogen
+LOCAL_ANNOTATION_PROCESSOR_CLASSES := com.tmobile.themes.daogen.DAOProcessor
+
 include $(BUILD_STATIC_JAVA_LIBRARY)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -0,0 +1,12 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+	../src/com/tmobile/themes/provider/annotation/DAO.java \
+	../src/com/tmobile/themes/provider/annotation/Column.java
+LOCAL_JAVA_RESOURCE_DIRS := resources
+LOCAL_MODULE := com.tmobile.themes.daogen
+
+include $(BUILD_HOST_JAVA_LIBRARY)
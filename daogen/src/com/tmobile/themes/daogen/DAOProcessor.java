@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.daogen;
+
+import com.tmobile.themes.provider.annotation.Column;
+import com.tmobile.themes.provider.annotation.DAO;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates {@code AbstractDAOItem} subclasses from interfaces annotated with
+ * {@link DAO}, and optionally an immutable snapshot class. All column binding
+ * happens at compile time; the generated code uses no reflection.
+ *
+ * @see DAO
+ * @see Column
+ */
+@SupportedAnnotationTypes("com.tmobile.themes.provider.annotation.DAO")
+public class DAOProcessor extends AbstractProcessor {
+    private static final String ROW_ID_COLUMN = "_id";
+
+    private static class Getter {
+        final String methodName;
+        final String fieldName;
+        final String snapshotFieldName;
+        final String returnType;
+        final String column;
+        final String accessor;
+        final String docComment;
+
+        Getter(String methodName, String returnType, String column, String accessor,
+                String docComment) {
+            this.methodName = methodName;
+            this.returnType = returnType;
+            this.column = column;
+            this.accessor = accessor;
+            this.docComment = docComment;
+            this.fieldName = "mColumn" + stripPrefix(methodName);
+            this.snapshotFieldName = "m" + stripPrefix(methodName);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(DAO.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                error(element, "@DAO may only be applied to interfaces");
+                continue;
+            }
+            TypeElement iface = (TypeElement)element;
+            List<Getter> getters = collectGetters(iface);
+            if (getters == null) {
+                continue;
+            }
+            DAO dao = iface.getAnnotation(DAO.class);
+            try {
+                generate(iface, dao, getters);
+                if (dao.snapshotClassName().length() > 0) {
+                    generateSnapshot(iface, dao, getters);
+                }
+            } catch (IOException e) {
+                error(iface, "Unable to write DAO: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private List<Getter> collectGetters(TypeElement iface) {
+        List<Getter> getters = new ArrayList<Getter>();
+        boolean valid = true;
+        for (ExecutableElement method : ElementFilter.methodsIn(iface.getEnclosedElements())) {
+            Column column = method.getAnnotation(Column.class);
+            if (column == null) {
+                error(method, "DAO methods must be annotated with @Column");
+                valid = false;
+                continue;
+            }
+            if (!method.getParameters().isEmpty()) {
+                error(method, "DAO methods must not take arguments");
+                valid = false;
+                continue;
+            }
+            String returnType = method.getReturnType().toString();
+            String accessor = getAccessor(returnType, column.defaultValue());
+            if (accessor == null) {
+                error(method, "Unsupported DAO return type " + returnType);
+                valid = false;
+                continue;
+            }
+            getters.add(new Getter(method.getSimpleName().toString(), returnType,
+                    column.value(), accessor,
+                    processingEnv.getElementUtils().getDocComment(method)));
+        }
+        if (getters.isEmpty()) {
+            error(iface, "@DAO interfaces must declare at least one @Column method");
+            valid = false;
+        }
+        return (valid ? getters : null);
+    }
+
+    /**
+     * @return an expression template reading a column, with %s replaced by
+     *         the column index field, or null if the type is unsupported.
+     */
+    private static String getAccessor(String returnType, String defaultValue) {
+        boolean hasDefault = defaultValue.length() > 0;
+        if ("java.lang.String".equals(returnType)) {
+            return "getStringNullSafe(%s)";
+        } else if ("android.net.Uri".equals(returnType)) {
+            return "parseUriNullSafe(getStringNullSafe(%s))";
+        } else if ("long".equals(returnType)) {
+            return "getLongNullSafe(%s, " + (hasDefault ? defaultValue : "0") + ")";
+        } else if ("int".equals(returnType)) {
+            return "getIntNullSafe(%s, " + (hasDefault ? defaultValue : "0") + ")";
+        } else if ("boolean".equals(returnType)) {
+            return "getBooleanNullSafe(%s, " + (hasDefault ? defaultValue : "false") + ")";
+        }
+        return null;
+    }
+
+    private void generate(TypeElement iface, DAO dao, List<Getter> getters)
+            throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(iface)
+                .getQualifiedName().toString();
+        String className = dao.className();
+        boolean concrete = dao.contentUri().length() > 0;
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName + "." + className, iface);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            out.println("/* Generated by " + DAOProcessor.class.getName() +
+                    " from " + iface.getQualifiedName() + ". Do not edit. */");
+            out.println();
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import com.tmobile.themes.provider.AbstractDAOItem;");
+            out.println();
+            out.println("import android.content.Context;");
+            out.println("import android.database.Cursor;");
+            out.println("import android.net.Uri;");
+            out.println();
+            out.println("/**");
+            out.println(" * Column binding for {@link " + iface.getQualifiedName() + "}. Column");
+            out.println(" * index fields are -1 when the cursor's projection lacks the column.");
+            out.println(" */");
+            out.println("public " + (concrete ? "" : "abstract ") + "class " + className +
+                    " extends AbstractDAOItem implements " + iface.getQualifiedName() + " {");
+
+            out.println("    private static final ColumnIndexCache COLUMNS = new ColumnIndexCache(");
+            for (int i = 0; i < getters.size(); i++) {
+                out.print("            " + quote(getters.get(i).column));
+                out.println(i < getters.size() - 1 || concrete ? "," : ");");
+            }
+            if (concrete) {
+                out.println("            " + quote(ROW_ID_COLUMN) + ");");
+                out.println();
+                out.println("    private static final Uri CONTENT_URI = Uri.parse(" +
+                        quote(dao.contentUri()) + ");");
+                out.println();
+                out.println("    private static final AbstractDAOItem.Creator<" + className +
+                        "> CREATOR =");
+                out.println("            new AbstractDAOItem.Creator<" + className + ">() {");
+                out.println("        @Override");
+                out.println("        public " + className + " init(Cursor c) {");
+                out.println("            return new " + className + "(c);");
+                out.println("        }");
+                out.println("    };");
+            }
+            out.println();
+
+            for (Getter getter : getters) {
+                out.println("    protected final int " + getter.fieldName + ";");
+            }
+            if (concrete) {
+                out.println("    private final int mColumnRowId;");
+            }
+            out.println();
+
+            if (concrete) {
+                out.println("    public static " + className +
+                        " getInstance(Context context, Uri uri) {");
+                out.println("        return CREATOR.newInstance(context, uri);");
+                out.println("    }");
+                out.println();
+                out.println("    public static " + className + " getInstance(Cursor c) {");
+                out.println("        return CREATOR.newInstance(c);");
+                out.println("    }");
+                out.println();
+            }
+
+            out.println("    public " + className + "(Cursor c) {");
+            out.println("        super(c);");
+            out.println("        int[] columns = COLUMNS.getIndices(c);");
+            for (int i = 0; i < getters.size(); i++) {
+                out.println("        " + getters.get(i).fieldName + " = columns[" + i + "];");
+            }
+            if (concrete) {
+                out.println("        mColumnRowId = columns[" + getters.size() + "];");
+            }
+            out.println("    }");
+
+            if (concrete) {
+                out.println();
+                out.println("    @Override");
+                out.println("    public Uri getUri(Context context) {");
+                out.println("        return CONTENT_URI.buildUpon().appendPath(");
+                out.println("                String.valueOf(getLongNullSafe(mColumnRowId, -1))).build();");
+                out.println("    }");
+            }
+
+            if (dao.snapshotClassName().length() > 0) {
+                out.println();
+                out.println("    /**");
+                out.println("     * @return an immutable copy of the current row.");
+                out.println("     */");
+                out.println("    public " + dao.snapshotClassName() + " toSnapshot() {");
+                out.println("        return new " + dao.snapshotClassName() + "(this);");
+                out.println("    }");
+            }
+
+            for (Getter getter : getters) {
+                out.println();
+                printDocComment(out, getter);
+                out.println("    public " + getter.returnType + " " + getter.methodName + "() {");
+                out.println("        return " + String.format(getter.accessor, getter.fieldName) +
+                        ";");
+                out.println("    }");
+            }
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void generateSnapshot(TypeElement iface, DAO dao, List<Getter> getters)
+            throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(iface)
+                .getQualifiedName().toString();
+        String className = dao.snapshotClassName();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName + "." + className, iface);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            out.println("/* Generated by " + DAOProcessor.class.getName() +
+                    " from " + iface.getQualifiedName() + ". Do not edit. */");
+            out.println();
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Immutable, cursor-free copy of a {@link " + dao.className() +
+                    "} row. Safe to share between threads.");
+            out.println(" */");
+            String superclass = dao.snapshotSuperclass();
+            out.println("public final class " + className +
+                    (superclass.length() > 0 ? " extends " + superclass : "") +
+                    " implements " + iface.getQualifiedName() + " {");
+            for (Getter getter : getters) {
+                out.println("    private final " + getter.returnType + " " +
+                        getter.snapshotFieldName + ";");
+            }
+            out.println();
+            out.println("    " + className + "(" + iface.getQualifiedName() + " source) {");
+            for (Getter getter : getters) {
+                out.println("        " + getter.snapshotFieldName + " = source." +
+                        getter.methodName + "();");
+            }
+            out.println("    }");
+            for (Getter getter : getters) {
+                out.println();
+                printDocComment(out, getter);
+                out.println("    public " + getter.returnType + " " + getter.methodName + "() {");
+                out.println("        return " + getter.snapshotFieldName + ";");
+                out.println("    }");
+            }
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copies the interface method's doc comment onto a generated getter, so
+     * that the public API of the generated class stays documented.
+     */
+    private static void printDocComment(PrintWriter out, Getter getter) {
+        out.println("    /**");
+        if (getter.docComment == null || getter.docComment.trim().length() == 0) {
+            out.println("     * @return the " + getter.column + " column.");
+        } else {
+            String[] lines = getter.docComment.trim().split("\\r?\\n");
+            for (String line : lines) {
+                /* javac keeps the space following each leading '*'. */
+                if (line.startsWith(" ")) {
+                    line = line.substring(1);
+                }
+                line = line.replaceAll("\\s+$", "");
+                out.println(line.length() > 0 ? "     * " + line : "     *");
+            }
+        }
+        out.println("     */");
+    }
+
+    private static String stripPrefix(String methodName) {
+        String name = methodName;
+        if (name.startsWith("get") && name.length() > 3) {
+            name = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2) {
+            name = name.substring(2);
+        }
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
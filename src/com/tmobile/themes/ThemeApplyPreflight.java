@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import com.tmobile.themes.provider.ThemeItem;
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Checks that a theme can be applied before {@link ThemeManager#ACTION_CHANGE_THEME}
+ * is dispatched, so that themes which would fail only after a configuration
+ * change are rejected up front. A theme must have host density assets and
+ * the theme package scope, its package must be installed and every Uri it
+ * references must be openable.
+ * <p>
+ * Verdicts are always computed from the {@link ThemeItem#PROJECTION_APPLY}
+ * columns; items with a narrower projection are re-queried. They are cached
+ * per theme package version and theme id. Package versions are cached as
+ * well, so that {@link #getCachedVerdict} makes no package manager calls.
+ * Installing, replacing or removing a package discards its version and
+ * verdicts; other provider changes, such as applying a theme, keep them.
+ * Verdicts for earlier versions of a package are also dropped as soon as a
+ * newer version is seen.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      // In the background:
+ *      int verdict = ThemeApplyPreflight.getInstance(context).check(item);
+ *      if (!ThemeApplyPreflight.canApply(verdict)) {
+ *          // Explain the problem instead of applying.
+ *      }
+ * </pre>
+ * @author T-Mobile USA
+ */
+public class ThemeApplyPreflight implements ThemeChangeHub.Listener {
+    /** The theme passed every check. */
+    public static final int OK = 0;
+
+    public static final int MISSING_HOST_DENSITY = 1 << 0;
+    public static final int MISSING_THEME_PACKAGE_SCOPE = 1 << 1;
+    public static final int PACKAGE_NOT_INSTALLED = 1 << 2;
+    public static final int MISSING_WALLPAPER = 1 << 3;
+    public static final int MISSING_LOCK_WALLPAPER = 1 << 4;
+    public static final int MISSING_RINGTONE = 1 << 5;
+    public static final int MISSING_NOTIFICATION_RINGTONE = 1 << 6;
+
+    /**
+     * The theme contains DRM content. Not a failure by itself; the caller
+     * must ensure rights are available before applying.
+     */
+    public static final int DRM_PROTECTED = 1 << 7;
+
+    /* Rough memory held by each cached verdict beyond its key's characters. */
+    private static final int VERDICT_OVERHEAD_BYTES = 64;
+
+    /* The system theme is not packaged separately. */
+    private static final int NO_VERSION = -1;
+
+    private static ThemeApplyPreflight sInstance;
+
+    private final Context mContext;
+    private final HashMap<String, Integer> mVerdicts = new HashMap<String, Integer>();
+
+    /* Version code of each theme package seen, or NO_VERSION if not installed. */
+    private final HashMap<String, Integer> mVersionCodes = new HashMap<String, Integer>();
+
+    private ThemeApplyPreflight(Context context) {
+        mContext = context;
+        ThemesCacheGovernor.getInstance().register("ThemeApplyPreflight",
+                ThemesCacheGovernor.PRIORITY_NORMAL, new ThemesCacheGovernor.ManagedCache() {
+            public long getByteCount() {
+                synchronized (ThemeApplyPreflight.this) {
+                    return getByteCountLocked();
+                }
+            }
+
+            public void trimTo(long maxBytes) {
+                synchronized (ThemeApplyPreflight.this) {
+                    if (getByteCountLocked() > maxBytes) {
+                        mVerdicts.clear();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param context any context; the application context is retained.
+     * @return the process-wide validator.
+     */
+    public static synchronized ThemeApplyPreflight getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeApplyPreflight(context.getApplicationContext());
+            ThemeChangeHub.getInstance(context).addListener(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param verdict a verdict returned by {@link #check}.
+     * @return true if the verdict has no failures.
+     */
+    public static boolean canApply(int verdict) {
+        return (verdict & ~DRM_PROTECTED) == 0;
+    }
+
+    /**
+     * Checks the theme at the cursor position of item, reusing a cached
+     * verdict if the theme's package has not changed since. If item's
+     * projection lacks any {@link ThemeItem#PROJECTION_APPLY} column, the
+     * theme is queried again with that projection. May query the provider
+     * and package manager and opens the theme's Uris on a cache miss, so
+     * must not be called on the main thread.
+     * @return {@link #OK} or a combination of the failure flags.
+     * @throws IllegalArgumentException if item's projection lacks the
+     *             package or theme id, so the theme cannot be identified.
+     */
+    public int check(ThemeItem item) {
+        Uri uri = item.getUri(mContext);
+        if (uri == null) {
+            throw new IllegalArgumentException("Projection lacks " +
+                    ThemeColumns.THEME_PACKAGE + " or " + ThemeColumns.THEME_ID);
+        }
+        String packageName = item.getPackageName();
+        String themeId = item.getThemeId();
+        int versionCode = getVersionCode(packageName);
+        String key = getKey(packageName, versionCode, themeId);
+        synchronized (this) {
+            Integer verdict = mVerdicts.get(key);
+            if (verdict != null) {
+                return verdict;
+            }
+        }
+        int verdict;
+        if (hasApplyColumns(item)) {
+            verdict = checkApplyItem(item, versionCode);
+        } else {
+            Cursor c = mContext.getContentResolver().query(uri, ThemeItem.PROJECTION_APPLY,
+                    null, null, null);
+            ThemeItem applyItem = ThemeItem.getInstance(c);
+            if (applyItem == null) {
+                /* Removed from the provider since item was queried. */
+                return PACKAGE_NOT_INSTALLED;
+            }
+            try {
+                verdict = checkApplyItem(applyItem, versionCode);
+            } finally {
+                applyItem.close();
+            }
+        }
+        synchronized (this) {
+            mVerdicts.put(key, verdict);
+        }
+        return verdict;
+    }
+
+    /**
+     * Returns the cached verdict for item without performing any checks or
+     * package manager calls. Suitable for the main thread. Reads only the
+     * package and theme id columns of item.
+     * @return the verdict, or -1 if item has not been checked at its
+     *         current package version.
+     */
+    public int getCachedVerdict(ThemeItem item) {
+        String packageName = item.getPackageName();
+        Integer versionCode;
+        if (TextUtils.isEmpty(packageName)) {
+            versionCode = NO_VERSION;
+        } else {
+            synchronized (this) {
+                versionCode = mVersionCodes.get(packageName);
+            }
+            if (versionCode == null) {
+                return -1;
+            }
+        }
+        synchronized (this) {
+            Integer verdict = mVerdicts.get(getKey(packageName, versionCode, item.getThemeId()));
+            return (verdict != null ? verdict : -1);
+        }
+    }
+
+    /**
+     * Discards the verdicts of every theme in packageName.
+     */
+    public synchronized void invalidate(String packageName) {
+        mVersionCodes.remove(packageName);
+        String prefix = getKeyPrefix(packageName);
+        Iterator<String> i = mVerdicts.keySet().iterator();
+        while (i.hasNext()) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all verdicts.
+     */
+    public synchronized void clear() {
+        mVerdicts.clear();
+        mVersionCodes.clear();
+    }
+
+    public void onThemeApplied(Uri themeUri) {
+    }
+
+    public void onCatalogChanged() {
+        /* Package changes are reported separately. */
+    }
+
+    public void onPackageUpdated(String packageName) {
+        invalidate(packageName);
+    }
+
+    public void onPackageRemoved(String packageName) {
+        invalidate(packageName);
+    }
+
+    private long getByteCountLocked() {
+        long bytes = 0;
+        for (String key : mVerdicts.keySet()) {
+            bytes += key.length() * 2 + VERDICT_OVERHEAD_BYTES;
+        }
+        return bytes;
+    }
+
+    private static boolean hasApplyColumns(ThemeItem item) {
+        Cursor c = item.getCursor();
+        for (String column : ThemeItem.PROJECTION_APPLY) {
+            if (c.getColumnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param item a theme with every {@link ThemeItem#PROJECTION_APPLY}
+     *            column.
+     * @param versionCode the version of item's package.
+     */
+    private int checkApplyItem(ThemeItem item, int versionCode) {
+        if (versionCode == NO_VERSION && !TextUtils.isEmpty(item.getPackageName())) {
+            return PACKAGE_NOT_INSTALLED | checkFlags(item);
+        }
+        return checkFlags(item) | checkUris(item);
+    }
+
+    private static int checkFlags(ThemeItem item) {
+        int verdict = OK;
+        if (!item.hasHostDensity()) {
+            verdict |= MISSING_HOST_DENSITY;
+        }
+        if (!item.hasThemePackageScope()) {
+            verdict |= MISSING_THEME_PACKAGE_SCOPE;
+        }
+        if (item.isDRMProtected()) {
+            verdict |= DRM_PROTECTED;
+        }
+        return verdict;
+    }
+
+    private int checkUris(ThemeItem item) {
+        int verdict = OK;
+        if (!isOpenable(item.getWallpaperUri(mContext))) {
+            verdict |= MISSING_WALLPAPER;
+        }
+        if (!isOpenable(item.getLockWallpaperUri(mContext))) {
+            verdict |= MISSING_LOCK_WALLPAPER;
+        }
+        if (!isOpenable(item.getRingtoneUri(mContext))) {
+            verdict |= MISSING_RINGTONE;
+        }
+        if (!isOpenable(item.getNotificationRingtoneUri(mContext))) {
+            verdict |= MISSING_NOTIFICATION_RINGTONE;
+        }
+        return verdict;
+    }
+
+    /**
+     * @return true if uri is absent, silent or can be opened.
+     */
+    private boolean isOpenable(Uri uri) {
+        if (uri == null || ThemeManager.SILENT_RINGTONE_URI.equals(uri)) {
+            return true;
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        AssetFileDescriptor afd;
+        try {
+            afd = resolver.openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+        if (afd == null) {
+            return false;
+        }
+        try {
+            afd.close();
+        } catch (IOException e) {
+        }
+        return true;
+    }
+
+    private int getVersionCode(String packageName) {
+        if (TextUtils.isEmpty(packageName)) {
+            return NO_VERSION;
+        }
+        synchronized (this) {
+            Integer versionCode = mVersionCodes.get(packageName);
+            if (versionCode != null) {
+                return versionCode;
+            }
+        }
+        int versionCode;
+        try {
+            versionCode = mContext.getPackageManager().getPackageInfo(packageName, 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            versionCode = NO_VERSION;
+        }
+        synchronized (this) {
+            mVersionCodes.put(packageName, versionCode);
+            removeSupersededVerdictsLocked(packageName, versionCode);
+        }
+        return versionCode;
+    }
+
+    /**
+     * Drops the verdicts of packageName at any version but versionCode,
+     * which can no longer be looked up.
+     */
+    private void removeSupersededVerdictsLocked(String packageName, int versionCode) {
+        String prefix = getKeyPrefix(packageName);
+        String current = prefix + versionCode + '/';
+        Iterator<String> i = mVerdicts.keySet().iterator();
+        while (i.hasNext()) {
+            String key = i.next();
+            if (key.startsWith(prefix) && !key.startsWith(current)) {
+                i.remove();
+            }
+        }
+    }
+
+    private static String getKeyPrefix(String packageName) {
+        return (packageName != null ? packageName : "") + '/';
+    }
+
+    private static String getKey(String packageName, int versionCode, String themeId) {
+        return getKeyPrefix(packageName) + versionCode + '/' + themeId;
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import com.tmobile.themes.graphics.WallpaperStore;
+import com.tmobile.themes.provider.ThemeItem;
+import com.tmobile.themes.provider.Themes;
+
+import android.app.WallpaperManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prepares a theme's assets in the background before it is applied, so
+ * that applying does not start by decoding wallpapers. Once the user has
+ * dwelled on a theme's preview for a short while, its wallpaper and lock
+ * screen wallpaper are decoded at the size the wallpaper manager wants
+ * through the shared {@link WallpaperStore}, and its ringtone Uris are
+ * opened to confirm they resolve. Only the most recently staged theme is
+ * kept; staging another theme, or calling {@link #cancel()}, abandons it.
+ * <p>
+ * Staging is bounded by {@link #setMaxStagedBytes}: each wallpaper's size
+ * is estimated from its bounds before it is decoded, and one which would
+ * take the staged bitmaps over the limit is left for the apply path to
+ * decode. Under memory pressure the {@link ThemesCacheGovernor} abandons
+ * staging before trimming any other cache.
+ * <p>
+ * {@link Themes#changeTheme} only broadcasts {@link ThemeManager#ACTION_CHANGE_THEME};
+ * the theme is applied by whichever receiver handles it. Staging pays off
+ * only when that receiver runs in the process which staged the theme and
+ * obtains the theme's wallpapers through {@link #acquireWallpaper} and
+ * checks its ringtones through {@link #resolveRingtone}, as below, rather
+ * than decoding and opening them itself.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      // While showing the preview of a theme:
+ *      ThemeAssetStager.getInstance(context).stage(item);
+ *
+ *      // In the receiver of ACTION_CHANGE_THEME, in the same process:
+ *      ThemeAssetStager stager = ThemeAssetStager.getInstance(context);
+ *      ThemeAssetStager.Wallpaper wallpaper = stager.acquireWallpaper(wallpaperUri);
+ *      if (wallpaper != null) {
+ *          try {
+ *              wallpaperManager.setBitmap(wallpaper.getBitmap());
+ *          } finally {
+ *              wallpaper.release();
+ *          }
+ *      }
+ *      if (!stager.resolveRingtone(ringtoneUri)) {
+ *          // Fall back to the default ringtone.
+ *      }
+ * </pre>
+ * @author T-Mobile USA
+ */
+public class ThemeAssetStager {
+    private static final String TAG = "ThemeAssetStager";
+    private static final boolean DEBUG = false;
+
+    /* How long a theme must be previewed before its assets are staged. */
+    private static final long DWELL_DELAY = 400;
+
+    private static final long DEFAULT_MAX_STAGED_BYTES = 6 * 1024 * 1024;
+
+    private static ThemeAssetStager sInstance;
+
+    private final Context mContext;
+    private final WallpaperStore mStore;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG);
+        }
+    });
+
+    private long mMaxStagedBytes = DEFAULT_MAX_STAGED_BYTES;
+    private Job mJob;
+
+    private ThemeAssetStager(Context context) {
+        mContext = context;
+        mStore = WallpaperStore.getInstance(context);
+        ThemesCacheGovernor.getInstance().register(TAG, ThemesCacheGovernor.PRIORITY_LOW,
+                new ThemesCacheGovernor.ManagedCache() {
+            /**
+             * Staged bitmaps live in the WallpaperStore and are counted
+             * there; counting them here too would double their weight.
+             */
+            public long getByteCount() {
+                return 0;
+            }
+
+            /**
+             * Called only while the caches are over their target. Staging
+             * pins its bitmaps in the WallpaperStore, so abandoning it is
+             * what lets the store trim them.
+             */
+            public void trimTo(long maxBytes) {
+                synchronized (ThemeAssetStager.this) {
+                    if (mJob != null && mJob.getStagedByteCount() > 0) {
+                        cancelLocked();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param context any context; the application context is retained.
+     * @return the process-wide stager.
+     */
+    public static synchronized ThemeAssetStager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeAssetStager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxBytes the memory staged wallpaper bitmaps may hold.
+     */
+    public synchronized void setMaxStagedBytes(long maxBytes) {
+        mMaxStagedBytes = maxBytes;
+    }
+
+    /**
+     * Stages the assets of the theme at the cursor position of item once
+     * it has been previewed for a short while, replacing any previously
+     * staged theme. If item's projection lacks the asset Uri columns, such
+     * as {@link ThemeItem#PROJECTION_LIST}, they are looked up in the
+     * background. Must be called on the main thread.
+     * @throws IllegalArgumentException if item's projection lacks both the
+     *             asset Uris and the package or theme id, so there is
+     *             nothing to stage.
+     */
+    public void stage(ThemeItem item) {
+        Uri themeUri = item.getUri(mContext);
+        if (item.hasAssetColumns()) {
+            stage(themeUri, false, item.getWallpaperUri(mContext),
+                    item.getLockWallpaperUri(mContext), item.getRingtoneUri(mContext),
+                    item.getNotificationRingtoneUri(mContext));
+        } else if (themeUri != null) {
+            stage(themeUri, true, null, null, null, null);
+        } else {
+            throw new IllegalArgumentException("Projection lacks the asset Uris and " +
+                    Themes.ThemeColumns.THEME_PACKAGE + " or " +
+                    Themes.ThemeColumns.THEME_ID);
+        }
+    }
+
+    /**
+     * Stages the assets named by a {@link ThemeManager#ACTION_CHANGE_THEME}
+     * intent. With {@link ThemeManager#EXTRA_EXTENDED_THEME_CHANGE}, as sent
+     * when changing profile, the assets are those named by its extras;
+     * otherwise they are those of the theme in the intent's data, which
+     * are looked up in the background. Must be called on the main thread.
+     */
+    public void stage(Intent changeIntent) {
+        if (!changeIntent.getBooleanExtra(ThemeManager.EXTRA_EXTENDED_THEME_CHANGE, false)) {
+            Uri themeUri = changeIntent.getData();
+            if (themeUri != null) {
+                stage(themeUri, true, null, null, null, null);
+            }
+            return;
+        }
+        Uri lockWallpaper = null;
+        if (!changeIntent.getBooleanExtra(ThemeManager.EXTRA_DONT_SET_LOCK_WALLPAPER, false)) {
+            lockWallpaper = (Uri)changeIntent.getParcelableExtra(
+                    ThemeManager.EXTRA_LOCK_WALLPAPER_URI);
+        }
+        stage(null, false,
+                (Uri)changeIntent.getParcelableExtra(ThemeManager.EXTRA_WALLPAPER_URI),
+                lockWallpaper,
+                (Uri)changeIntent.getParcelableExtra(ThemeManager.EXTRA_RINGTONE_URI),
+                (Uri)changeIntent.getParcelableExtra(
+                        ThemeManager.EXTRA_NOTIFICATION_RINGTONE_URI));
+    }
+
+    /**
+     * @param themeUri the theme being staged, or null if only its assets
+     *            are known.
+     * @param lookUp true to look up the asset Uris of themeUri rather than
+     *            use those given.
+     */
+    private synchronized void stage(Uri themeUri, boolean lookUp, Uri wallpaper,
+            Uri lockWallpaper, Uri ringtone, Uri notificationRingtone) {
+        if (mJob != null) {
+            if (mJob.matches(themeUri, wallpaper, lockWallpaper, ringtone,
+                    notificationRingtone)) {
+                return;
+            }
+            cancelLocked();
+        }
+        mJob = new Job(themeUri, lookUp, wallpaper, lockWallpaper, ringtone,
+                notificationRingtone);
+        mHandler.postDelayed(mJob, DWELL_DELAY);
+    }
+
+    /**
+     * Abandons the staged theme and releases its wallpapers. Call when the
+     * preview is left without applying.
+     */
+    public synchronized void cancel() {
+        cancelLocked();
+    }
+
+    private void cancelLocked() {
+        if (mJob != null) {
+            mHandler.removeCallbacks(mJob);
+            mJob.cancel();
+            mJob = null;
+        }
+    }
+
+    /**
+     * Returns a wallpaper decoded at the size the wallpaper manager wants,
+     * using the staged bitmap if uri was staged. On a miss the wallpaper is
+     * decoded now, so this must not be called on the main thread. The
+     * wallpaper holds a reference to its {@link WallpaperStore} entry, so
+     * its bitmap stays valid even if staging is abandoned meanwhile, until
+     * it is released.
+     * @return the wallpaper, which must be released when done, or null if
+     *         it cannot be decoded.
+     */
+    public Wallpaper acquireWallpaper(Uri uri) throws IOException {
+        long start = SystemClock.uptimeMillis();
+        Job job;
+        synchronized (this) {
+            job = mJob;
+        }
+        boolean hit = (job != null && job.isWallpaperStaged(uri));
+        /* A staged entry is referenced, so this finds it without decoding. */
+        WallpaperStore.Entry entry = mStore.acquire(uri);
+        Bitmap bitmap;
+        try {
+            bitmap = entry.getBitmap(getTargetWidth(), getTargetHeight());
+        } catch (IOException e) {
+            mStore.release(entry);
+            throw e;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "wallpaper " + (hit ? "hit" : "miss") + " in " +
+                    (SystemClock.uptimeMillis() - start) + "ms: " + uri);
+        }
+        if (bitmap == null) {
+            mStore.release(entry);
+            return null;
+        }
+        return new Wallpaper(entry, bitmap);
+    }
+
+    /**
+     * Checks that a ringtone Uri resolves, answering from the staged theme
+     * if uri was staged. Must not be called on the main thread.
+     * @return true if uri is silent or can be opened.
+     */
+    public boolean resolveRingtone(Uri uri) {
+        long start = SystemClock.uptimeMillis();
+        Job job;
+        synchronized (this) {
+            job = mJob;
+        }
+        Boolean staged = (job != null ? job.getStagedRingtone(uri) : null);
+        boolean resolved = (staged != null ? staged : resolve(uri));
+        if (DEBUG) {
+            Log.d(TAG, "ringtone " + (staged != null ? "hit" : "miss") + " in " +
+                    (SystemClock.uptimeMillis() - start) + "ms: " + uri);
+        }
+        return resolved;
+    }
+
+    private int getTargetWidth() {
+        int width = WallpaperManager.getInstance(mContext).getDesiredMinimumWidth();
+        return (width > 0 ? width : getDisplayMetrics().widthPixels);
+    }
+
+    private int getTargetHeight() {
+        int height = WallpaperManager.getInstance(mContext).getDesiredMinimumHeight();
+        return (height > 0 ? height : getDisplayMetrics().heightPixels);
+    }
+
+    private DisplayMetrics getDisplayMetrics() {
+        return mContext.getResources().getDisplayMetrics();
+    }
+
+    private boolean resolve(Uri uri) {
+        if (uri == null || ThemeManager.SILENT_RINGTONE_URI.equals(uri)) {
+            return true;
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        try {
+            AssetFileDescriptor afd = resolver.openAssetFileDescriptor(uri, "r");
+            if (afd == null) {
+                return false;
+            }
+            afd.close();
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    private static boolean equals(Uri a, Uri b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    /**
+     * A wallpaper returned by {@link ThemeAssetStager#acquireWallpaper}.
+     */
+    public final class Wallpaper {
+        private WallpaperStore.Entry mEntry;
+        private final Bitmap mBitmap;
+
+        private Wallpaper(WallpaperStore.Entry entry, Bitmap bitmap) {
+            mEntry = entry;
+            mBitmap = bitmap;
+        }
+
+        /**
+         * @return the bitmap, which belongs to the {@link WallpaperStore}
+         *         and must not be recycled or used after {@link #release()}.
+         */
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * Releases the reference to the wallpaper's store entry. Further
+         * calls have no effect.
+         */
+        public synchronized void release() {
+            if (mEntry != null) {
+                mStore.release(mEntry);
+                mEntry = null;
+            }
+        }
+    }
+
+    /**
+     * Staging of a single theme. Posted to the main thread after the dwell
+     * delay, from where it moves itself to the background.
+     */
+    private class Job implements Runnable {
+        private final Uri mThemeUri;
+        private final boolean mLookUp;
+
+        /* Guarded by this job. Looked up in the background if mLookUp is set. */
+        private Uri mWallpaperUri;
+        private Uri mLockWallpaperUri;
+        private Uri mRingtoneUri;
+        private Uri mNotificationRingtoneUri;
+
+        /* Guarded by this job. */
+        private boolean mStarted;
+        private boolean mCancelled;
+        private WallpaperStore.Entry mWallpaper;
+        private WallpaperStore.Entry mLockWallpaper;
+        private Bitmap mWallpaperBitmap;
+        private Bitmap mLockWallpaperBitmap;
+        private Boolean mRingtoneResolved;
+        private Boolean mNotificationRingtoneResolved;
+
+        Job(Uri themeUri, boolean lookUp, Uri wallpaper, Uri lockWallpaper, Uri ringtone,
+                Uri notificationRingtone) {
+            mThemeUri = themeUri;
+            mLookUp = lookUp;
+            mWallpaperUri = wallpaper;
+            mLockWallpaperUri = lockWallpaper;
+            mRingtoneUri = ringtone;
+            mNotificationRingtoneUri = notificationRingtone;
+        }
+
+        synchronized boolean matches(Uri themeUri, Uri wallpaper, Uri lockWallpaper,
+                Uri ringtone, Uri notificationRingtone) {
+            if (mThemeUri != null && themeUri != null) {
+                /* The same theme, whether or not its assets were given. */
+                return mThemeUri.equals(themeUri);
+            }
+            if (mLookUp || wallpaper == null && lockWallpaper == null &&
+                    ringtone == null && notificationRingtone == null) {
+                return false;
+            }
+            return ThemeAssetStager.equals(mWallpaperUri, wallpaper) &&
+                    ThemeAssetStager.equals(mLockWallpaperUri, lockWallpaper) &&
+                    ThemeAssetStager.equals(mRingtoneUri, ringtone) &&
+                    ThemeAssetStager.equals(mNotificationRingtoneUri, notificationRingtone);
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (mStarted || mCancelled) {
+                    return;
+                }
+                mStarted = true;
+            }
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    long start = SystemClock.uptimeMillis();
+                    stageAssets();
+                    ThemesCacheGovernor.getInstance().enforceBudget();
+                    if (DEBUG) {
+                        Log.d(TAG, "staged in " + (SystemClock.uptimeMillis() - start) + "ms" +
+                                (isCancelled() ? " (cancelled)" : ""));
+                    }
+                }
+            });
+        }
+
+        private void stageAssets() {
+            if (mLookUp && !lookUpThemeAssets()) {
+                return;
+            }
+            long budget;
+            synchronized (ThemeAssetStager.this) {
+                budget = mMaxStagedBytes;
+            }
+            Uri wallpaper, lockWallpaper, ringtone, notificationRingtone;
+            synchronized (this) {
+                wallpaper = mWallpaperUri;
+                lockWallpaper = mLockWallpaperUri;
+                ringtone = mRingtoneUri;
+                notificationRingtone = mNotificationRingtoneUri;
+            }
+            long bytes = 0;
+            if (wallpaper != null && !isCancelled()) {
+                bytes += stageWallpaper(wallpaper, false, budget);
+            }
+            if (lockWallpaper != null && !isCancelled()) {
+                stageWallpaper(lockWallpaper, true, budget - bytes);
+            }
+            if (!isCancelled()) {
+                Boolean resolved = resolve(ringtone);
+                synchronized (this) {
+                    mRingtoneResolved = resolved;
+                }
+            }
+            if (!isCancelled()) {
+                Boolean resolved = resolve(notificationRingtone);
+                synchronized (this) {
+                    mNotificationRingtoneResolved = resolved;
+                }
+            }
+        }
+
+        /**
+         * Queries the asset Uris of mThemeUri.
+         * @return false if the theme no longer exists.
+         */
+        private boolean lookUpThemeAssets() {
+            Cursor c = mContext.getContentResolver().query(mThemeUri,
+                    ThemeItem.PROJECTION_APPLY, null, null, null);
+            ThemeItem item = ThemeItem.getInstance(c);
+            if (item == null) {
+                Log.w(TAG, "Unable to stage missing theme " + mThemeUri);
+                return false;
+            }
+            try {
+                synchronized (this) {
+                    mWallpaperUri = item.getWallpaperUri(mContext);
+                    mLockWallpaperUri = item.getLockWallpaperUri(mContext);
+                    mRingtoneUri = item.getRingtoneUri(mContext);
+                    mNotificationRingtoneUri = item.getNotificationRingtoneUri(mContext);
+                }
+            } finally {
+                item.close();
+            }
+            return true;
+        }
+
+        /**
+         * @return the memory held by the staged bitmap.
+         */
+        private long stageWallpaper(Uri uri, boolean lock, long budget) {
+            WallpaperStore.Entry entry;
+            Bitmap bitmap = null;
+            try {
+                entry = mStore.acquire(uri);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to stage " + uri, e);
+                return 0;
+            }
+            int width = getTargetWidth();
+            int height = getTargetHeight();
+            try {
+                /* Checked before decoding, so an oversized image is never held. */
+                long estimate = entry.estimateByteCount(width, height);
+                if (estimate >= 0 && estimate <= budget && !isCancelled()) {
+                    bitmap = entry.getBitmap(width, height);
+                } else if (DEBUG) {
+                    Log.d(TAG, "not staging " + uri + ": " + estimate + " of " + budget +
+                            " bytes");
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to stage " + uri, e);
+            }
+            long bytes = getByteCount(bitmap);
+            synchronized (this) {
+                if (bitmap == null || mCancelled || bytes > budget) {
+                    mStore.release(entry);
+                    return 0;
+                }
+                if (lock) {
+                    mLockWallpaper = entry;
+                    mLockWallpaperBitmap = bitmap;
+                } else {
+                    mWallpaper = entry;
+                    mWallpaperBitmap = bitmap;
+                }
+            }
+            return bytes;
+        }
+
+        synchronized long getStagedByteCount() {
+            return getByteCount(mWallpaperBitmap) + getByteCount(mLockWallpaperBitmap);
+        }
+
+        private long getByteCount(Bitmap bitmap) {
+            return (bitmap != null ? (long)bitmap.getRowBytes() * bitmap.getHeight() : 0);
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            if (mWallpaper != null) {
+                mStore.release(mWallpaper);
+                mWallpaper = null;
+                mWallpaperBitmap = null;
+            }
+            if (mLockWallpaper != null) {
+                mStore.release(mLockWallpaper);
+                mLockWallpaper = null;
+                mLockWallpaperBitmap = null;
+            }
+        }
+
+        synchronized boolean isWallpaperStaged(Uri uri) {
+            return (mWallpaperBitmap != null && mWallpaperUri.equals(uri)) ||
+                    (mLockWallpaperBitmap != null && mLockWallpaperUri.equals(uri));
+        }
+
+        /**
+         * @return whether uri resolves, or null if it has not been staged.
+         */
+        synchronized Boolean getStagedRingtone(Uri uri) {
+            if (mRingtoneResolved != null && ThemeAssetStager.equals(mRingtoneUri, uri)) {
+                return mRingtoneResolved;
+            }
+            if (mNotificationRingtoneResolved != null &&
+                    ThemeAssetStager.equals(mNotificationRingtoneUri, uri)) {
+                return mNotificationRingtoneResolved;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import com.tmobile.themes.provider.Themes;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide observer of theme changes. Registers a single receiver and
+ * content observer on behalf of every listener in the process, classifies
+ * each change and delivers it on the main thread.
+ * <p>
+ * Content notifications from the theme provider are coalesced, so a burst of
+ * provider updates results in a single {@link Listener#onCatalogChanged}.
+ * Note that applying a theme updates {@link Themes.ThemeColumns#IS_APPLIED}
+ * and so is normally followed by a catalog change as well; listeners which
+ * only display the applied mark can handle
+ * {@link Listener#onThemeApplied} and ignore it.
+ * @author T-Mobile USA
+ */
+public class ThemeChangeHub {
+    private static final long CATALOG_CHANGE_DELAY = 250;
+
+    private static ThemeChangeHub sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private boolean mRegistered;
+
+    /**
+     * Receives classified theme changes on the main thread.
+     */
+    public interface Listener {
+        /**
+         * A new theme has been applied.
+         * @param themeUri the applied theme, or null if the broadcast did not
+         *            specify one.
+         */
+        public void onThemeApplied(Uri themeUri);
+
+        /**
+         * Themes have been added, removed or updated in the provider.
+         */
+        public void onCatalogChanged();
+
+        /**
+         * A package, possibly holding themes, has been installed or
+         * replaced by another version.
+         * @param packageName the installed package.
+         */
+        public void onPackageUpdated(String packageName);
+
+        /**
+         * A package, possibly holding themes, has been removed.
+         * @param packageName the removed package.
+         */
+        public void onPackageRemoved(String packageName);
+    }
+
+    private ThemeChangeHub(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param context any context; the application context is retained.
+     * @return the process-wide hub.
+     */
+    public static synchronized ThemeChangeHub getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeChangeHub(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a listener. The hub registers with the system when its first
+     * listener is added.
+     */
+    public synchronized void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+        if (!mRegistered) {
+            register();
+        }
+    }
+
+    /**
+     * Removes a listener. The hub unregisters from the system when its last
+     * listener is removed.
+     */
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty() && mRegistered) {
+            unregister();
+        }
+    }
+
+    private void register() {
+        mContext.registerReceiver(mThemeReceiver,
+                new IntentFilter(ThemeManager.ACTION_THEME_CHANGED));
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, packageFilter);
+        mContext.getContentResolver().registerContentObserver(Themes.CONTENT_URI, true,
+                mCatalogObserver);
+        mRegistered = true;
+    }
+
+    private void unregister() {
+        mContext.unregisterReceiver(mThemeReceiver);
+        mContext.unregisterReceiver(mPackageReceiver);
+        mContext.getContentResolver().unregisterContentObserver(mCatalogObserver);
+        mHandler.removeCallbacks(mDispatchCatalogChanged);
+        mRegistered = false;
+    }
+
+    private synchronized Listener[] getListeners() {
+        return mListeners.toArray(new Listener[mListeners.size()]);
+    }
+
+    private final BroadcastReceiver mThemeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri themeUri = intent.getData();
+            for (Listener listener : getListeners()) {
+                listener.onThemeApplied(themeUri);
+            }
+        }
+    };
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (!Intent.ACTION_PACKAGE_REPLACED.equals(action) &&
+                    intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                /* Half of an upgrade, which is reported once as replaced. */
+                return;
+            }
+            Uri data = intent.getData();
+            String packageName = (data != null ? data.getSchemeSpecificPart() : null);
+            if (packageName == null) {
+                return;
+            }
+            boolean removed = Intent.ACTION_PACKAGE_REMOVED.equals(action);
+            for (Listener listener : getListeners()) {
+                if (removed) {
+                    listener.onPackageRemoved(packageName);
+                } else {
+                    listener.onPackageUpdated(packageName);
+                }
+            }
+        }
+    };
+
+    private final ContentObserver mCatalogObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mDispatchCatalogChanged);
+            mHandler.postDelayed(mDispatchCatalogChanged, CATALOG_CHANGE_DELAY);
+        }
+    };
+
+    private final Runnable mDispatchCatalogChanged = new Runnable() {
+        public void run() {
+            for (Listener listener : getListeners()) {
+                listener.onCatalogChanged();
+            }
+        }
+    };
+}
@@ -22,9 +22,12 @@ import android.net.Uri;
 public interface ThemeManager {
 
     /**
-     * Commonly passed between activities.
+     * Commonly passed between activities. When present, holds a
+     * {@link com.tmobile.themes.provider.ThemeSnapshot} so that the receiver
+     * need not query the provider.
      *
-     * @see com.tmobile.thememanager.provider.ThemeItem
+     * @see com.tmobile.themes.provider.ThemeSnapshot#putExtra
+     * @see com.tmobile.themes.provider.ThemeSnapshot#fromIntent
      */
     public static final String EXTRA_THEME_ITEM = "theme_item";
 
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Keeps the memory held by the library's caches within one global budget,
+ * and shrinks them together under memory pressure. Each cache registers
+ * with a priority; when the caches must shrink, the lowest priority caches
+ * are trimmed first and higher priority caches only if that is not enough.
+ * <p>
+ * The governor does not register for memory callbacks itself. Applications
+ * forward them from their activities or application:
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      public void onLowMemory() {
+ *          ThemesCacheGovernor.getInstance().onLowMemory();
+ *      }
+ *
+ *      public void onTrimMemory(int level) {
+ *          ThemesCacheGovernor.getInstance().onTrimMemory(level);
+ *      }
+ * </pre>
+ * The governor uses only core Java classes outside of {@link #dump()}, so
+ * {@link #createForTest} and {@link #simulatePressure} can exercise trimming
+ * on a plain JVM.
+ * @author T-Mobile USA
+ */
+public class ThemesCacheGovernor {
+    private static final String TAG = "ThemesCacheGovernor";
+
+    /*
+     * Trim levels, mirroring ComponentCallbacks2 which is not available at
+     * the API level this library targets.
+     */
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+    public static final int TRIM_MEMORY_MODERATE = 60;
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+
+    /** Speculative content, such as assets staged ahead of use. */
+    public static final int PRIORITY_LOW = 0;
+    /** Content which can be recreated at moderate cost. */
+    public static final int PRIORITY_NORMAL = 50;
+    /** Content the visible UI depends on. */
+    public static final int PRIORITY_HIGH = 100;
+
+    private static final long DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+
+    private static ThemesCacheGovernor sInstance;
+
+    /* Registrations in ascending priority, so in trim order. */
+    private final ArrayList<Registration> mCaches = new ArrayList<Registration>();
+    private long mByteBudget;
+
+    /**
+     * A cache managed by the governor. Methods are called with the
+     * governor's lock held, so implementations must not call back into the
+     * governor, and caches must not hold their own lock while calling
+     * {@link ThemesCacheGovernor#enforceBudget()}.
+     */
+    public interface ManagedCache {
+        /**
+         * @return the memory currently held by the cache. Usage may overlap
+         *         with that of other caches sharing the same objects.
+         */
+        public long getByteCount();
+
+        /**
+         * Shrinks the cache to hold at most maxBytes, as far as it can
+         * without dropping content in use.
+         */
+        public void trimTo(long maxBytes);
+    }
+
+    /**
+     * The memory held by one registered cache.
+     */
+    public static final class Usage {
+        private final String mName;
+        private final int mPriority;
+        private final long mByteCount;
+
+        private Usage(String name, int priority, long byteCount) {
+            mName = name;
+            mPriority = priority;
+            mByteCount = byteCount;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        @Override
+        public String toString() {
+            return mName + "(" + mPriority + ")=" + mByteCount;
+        }
+    }
+
+    private static class Registration {
+        final String name;
+        final int priority;
+        private final ManagedCache mCache;
+        private final WeakReference<ManagedCache> mWeakCache;
+
+        Registration(String name, int priority, ManagedCache cache, boolean weak) {
+            this.name = name;
+            this.priority = priority;
+            mCache = (weak ? null : cache);
+            mWeakCache = (weak ? new WeakReference<ManagedCache>(cache) : null);
+        }
+
+        /**
+         * @return the cache, or null if it was registered weakly and has
+         *         been collected.
+         */
+        ManagedCache get() {
+            return (mCache != null ? mCache : mWeakCache.get());
+        }
+    }
+
+    private ThemesCacheGovernor(long byteBudget) {
+        mByteBudget = byteBudget;
+    }
+
+    /**
+     * @return the process-wide governor, with which the library's caches
+     *         register themselves.
+     */
+    public static synchronized ThemesCacheGovernor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ThemesCacheGovernor(DEFAULT_BYTE_BUDGET);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a governor independent of the process-wide one, for tests.
+     * @param byteBudget the initial budget.
+     */
+    public static ThemesCacheGovernor createForTest(long byteBudget) {
+        return new ThemesCacheGovernor(byteBudget);
+    }
+
+    /**
+     * Registers a cache. Caches with equal priority are trimmed in the order
+     * they registered.
+     * @param name a name for the cache, used in {@link #getUsage()}.
+     * @param priority PRIORITY_LOW, PRIORITY_NORMAL, PRIORITY_HIGH or any
+     *            value between; lower priority caches are trimmed first.
+     */
+    public synchronized void register(String name, int priority, ManagedCache cache) {
+        register(name, priority, cache, false);
+    }
+
+    /**
+     * Registers a cache without keeping it reachable. The registration
+     * lapses once the cache is garbage collected, so caches belonging to
+     * short-lived objects, such as adapters, need not unregister. The owner
+     * must hold the cache strongly for as long as it should stay registered.
+     * @see #register(String, int, ManagedCache)
+     */
+    public synchronized void registerWeakly(String name, int priority, ManagedCache cache) {
+        register(name, priority, cache, true);
+    }
+
+    private void register(String name, int priority, ManagedCache cache, boolean weak) {
+        pruneLocked();
+        int i = 0;
+        while (i < mCaches.size() && mCaches.get(i).priority <= priority) {
+            i++;
+        }
+        mCaches.add(i, new Registration(name, priority, cache, weak));
+    }
+
+    public synchronized void unregister(ManagedCache cache) {
+        for (int i = 0; i < mCaches.size(); i++) {
+            if (mCaches.get(i).get() == cache) {
+                mCaches.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets the memory all registered caches together may hold, trimming
+     * them if they currently hold more.
+     */
+    public synchronized void setByteBudget(long maxBytes) {
+        mByteBudget = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    public synchronized long getByteBudget() {
+        return mByteBudget;
+    }
+
+    /**
+     * Trims caches back within the budget. Called by caches after they grow.
+     */
+    public synchronized void enforceBudget() {
+        trimTo(mByteBudget);
+    }
+
+    /**
+     * Shrinks the caches to a fraction of the budget appropriate for level.
+     * @param level one of the TRIM_MEMORY_ constants.
+     */
+    public synchronized void onTrimMemory(int level) {
+        trimTo(getTargetBytes(level));
+    }
+
+    /**
+     * Drops everything the caches can drop.
+     */
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Applies each trim level in turn, as a sequence of memory callbacks
+     * would. Intended for tests.
+     * @return the total memory held after each level.
+     */
+    public synchronized long[] simulatePressure(int... levels) {
+        long[] result = new long[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            onTrimMemory(levels[i]);
+            result[i] = getTotalByteCountLocked();
+        }
+        return result;
+    }
+
+    /**
+     * @return the memory held by all registered caches together.
+     */
+    public synchronized long getTotalByteCount() {
+        return getTotalByteCountLocked();
+    }
+
+    /**
+     * @return the memory held by each registered cache, in trim order.
+     */
+    public synchronized Usage[] getUsage() {
+        pruneLocked();
+        Usage[] usage = new Usage[mCaches.size()];
+        for (int i = 0; i < usage.length; i++) {
+            Registration r = mCaches.get(i);
+            usage[i] = new Usage(r.name, r.priority, getByteCount(r.get()));
+        }
+        return usage;
+    }
+
+    /**
+     * Dumps the usage of every cache to the log.
+     */
+    public void dump() {
+        StringBuilder b = new StringBuilder();
+        b.append("budget=").append(getByteBudget());
+        b.append("; total=").append(getTotalByteCount());
+        for (Usage usage : getUsage()) {
+            b.append("; ").append(usage);
+        }
+        Log.i(TAG, b.toString());
+    }
+
+    /**
+     * Maps a trim level to the memory the caches may keep. Levels are
+     * ordered by severity, so the target never grows with the level: the
+     * RUNNING_ levels shrink the caches progressively while the UI is
+     * visible, and once it is hidden nothing on screen depends on them, so
+     * they keep no more than under RUNNING_CRITICAL.
+     * @return the target for level, between 0 and the budget.
+     */
+    synchronized long getTargetBytes(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            return mByteBudget / 8;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            /* Also UI_HIDDEN and BACKGROUND. */
+            return mByteBudget / 4;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return mByteBudget / 2;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return mByteBudget * 3 / 4;
+        }
+        return mByteBudget;
+    }
+
+    private void trimTo(long maxBytes) {
+        pruneLocked();
+        long total = getTotalByteCountLocked();
+        for (int i = 0; i < mCaches.size() && total > maxBytes; i++) {
+            ManagedCache cache = mCaches.get(i).get();
+            if (cache == null) {
+                continue;
+            }
+            long bytes = cache.getByteCount();
+            cache.trimTo(Math.max(0, bytes - (total - maxBytes)));
+            /* Recount; trimming one cache may free memory counted by another. */
+            total = getTotalByteCountLocked();
+        }
+    }
+
+    private long getTotalByteCountLocked() {
+        long total = 0;
+        for (int i = 0; i < mCaches.size(); i++) {
+            total += getByteCount(mCaches.get(i).get());
+        }
+        return total;
+    }
+
+    private static long getByteCount(ManagedCache cache) {
+        return (cache != null ? cache.getByteCount() : 0);
+    }
+
+    /**
+     * Drops the registrations of weakly registered caches which have been
+     * collected.
+     */
+    private void pruneLocked() {
+        for (int i = mCaches.size() - 1; i >= 0; i--) {
+            if (mCaches.get(i).get() == null) {
+                mCaches.remove(i);
+            }
+        }
+    }
+}
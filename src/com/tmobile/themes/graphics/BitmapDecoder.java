@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.graphics;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images from content Uris at reduced size.
+ */
+final class BitmapDecoder {
+    /* Bytes per pixel of the default ARGB_8888 config, an upper bound. */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private BitmapDecoder() {}
+
+    /**
+     * Decodes the image at uri, subsampled by the largest power of two which
+     * keeps it at least reqWidth by reqHeight.
+     * @return the bitmap, or null if the image could not be decoded.
+     */
+    static Bitmap decodeSampled(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight)
+            throws IOException {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        decode(resolver, uri, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = getSampleSize(opts.outWidth, opts.outHeight, reqWidth, reqHeight);
+        return decode(resolver, uri, opts);
+    }
+
+    /**
+     * Estimates the memory held by the result of {@link #decodeSampled} and
+     * {@link #scaleToFit} for the image at uri, reading only its bounds.
+     * @return the estimate, or -1 if the image could not be decoded.
+     */
+    static long estimateByteCount(ContentResolver resolver, Uri uri, int maxWidth,
+            int maxHeight) throws IOException {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        decode(resolver, uri, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return -1;
+        }
+        int sampleSize = getSampleSize(opts.outWidth, opts.outHeight, maxWidth, maxHeight);
+        int width = Math.max(1, opts.outWidth / sampleSize);
+        int height = Math.max(1, opts.outHeight / sampleSize);
+        float scale = Math.min((float)maxWidth / width, (float)maxHeight / height);
+        if (scale < 1) {
+            width = Math.max(1, (int)(width * scale));
+            height = Math.max(1, (int)(height * scale));
+        }
+        return (long)width * height * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Scales bitmap down to fit within width by height, preserving its aspect
+     * ratio.
+     */
+    static Bitmap scaleToFit(Bitmap bitmap, int width, int height) {
+        float scale = Math.min((float)width / bitmap.getWidth(),
+                (float)height / bitmap.getHeight());
+        if (scale >= 1) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, (int)(bitmap.getWidth() * scale)),
+                Math.max(1, (int)(bitmap.getHeight() * scale)), true);
+    }
+
+    /**
+     * @return an estimate of the memory held by bitmap's pixels.
+     */
+    static long getByteCount(Bitmap bitmap) {
+        return (long)bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int getSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options opts)
+            throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, opts);
+        } finally {
+            in.close();
+        }
+    }
+}
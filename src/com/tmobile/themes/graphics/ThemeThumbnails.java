@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.graphics;
+
+import com.tmobile.themes.ThemeChangeHub;
+import com.tmobile.themes.provider.ThemeItem;
+import com.tmobile.themes.provider.ThemeSnapshot;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generates small, fixed-size theme thumbnails and persists them on disk so
+ * that grid pickers decode small images only. Thumbnails are derived from a
+ * theme's {@link ThemeItem#getThumbnailUri() thumbnail} if it has one, or
+ * else its {@link ThemeItem#getPreviewUri(int) preview}. The source is
+ * decoded once per theme version and orientation, on a background pool,
+ * and scaled into every size bucket at once.
+ * <p>
+ * Package versions are cached, so that loading a thumbnail while binding a
+ * view makes no package manager calls once the package has been seen. The
+ * cache is cleared when the {@link ThemeChangeHub} reports a catalog change
+ * or a package removal.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      ThemeThumbnails thumbnails = ThemeThumbnails.getInstance(context);
+ *      Bitmap b = thumbnails.loadThumbnail(item, orientation, ThemeThumbnails.BUCKET_SMALL);
+ *      if (b == null) {
+ *          thumbnails.requestThumbnail(item, orientation, ThemeThumbnails.BUCKET_SMALL, callback);
+ *      }
+ * </pre>
+ * @author T-Mobile USA
+ */
+public class ThemeThumbnails implements ThemeChangeHub.Listener {
+    private static final String TAG = "ThemeThumbnails";
+
+    public static final int BUCKET_SMALL = 0;
+    public static final int BUCKET_MEDIUM = 1;
+    public static final int BUCKET_LARGE = 2;
+
+    /* Longest edge of each bucket, in density independent pixels. */
+    private static final int[] BUCKET_SIZES_DIP = { 64, 128, 192 };
+
+    private static final String DIRECTORY_NAME = "theme_thumbnails";
+
+    private static final int POOL_SIZE = 2;
+
+    /* Cached version of a package which is not installed. */
+    private static final int NOT_INSTALLED = -1;
+
+    /*
+     * The system theme has no package; its resources change only with the
+     * platform build, so its thumbnails are keyed to the build fingerprint.
+     */
+    private static final String SYSTEM_PACKAGE_NAME = "android";
+    private static final int SYSTEM_VERSION_CODE = Build.FINGERPRINT.hashCode() &
+            Integer.MAX_VALUE;
+
+    private static ThemeThumbnails sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final int[] mBucketSizes = new int[BUCKET_SIZES_DIP.length];
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(POOL_SIZE,
+            new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG);
+        }
+    });
+
+    /* Pending jobs by file prefix, and the callbacks awaiting each. */
+    private final HashMap<String, ArrayList<PendingCallback>> mPending =
+            new HashMap<String, ArrayList<PendingCallback>>();
+
+    /* Version code of each theme package seen, or NOT_INSTALLED. */
+    private final HashMap<String, Integer> mVersionCodes = new HashMap<String, Integer>();
+
+    /**
+     * Receives thumbnails from {@link ThemeThumbnails#requestThumbnail}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread.
+         * @param theme the theme requested.
+         * @param bucket the bucket requested.
+         * @param thumbnail the thumbnail, or null if none could be generated.
+         */
+        public void onThumbnailLoaded(ThemeSnapshot theme, int bucket, Bitmap thumbnail);
+    }
+
+    private static class PendingCallback {
+        final int bucket;
+        final Callback callback;
+
+        PendingCallback(int bucket, Callback callback) {
+            this.bucket = bucket;
+            this.callback = callback;
+        }
+    }
+
+    private ThemeThumbnails(Context context) {
+        mContext = context;
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        float density = context.getResources().getDisplayMetrics().density;
+        for (int i = 0; i < mBucketSizes.length; i++) {
+            mBucketSizes[i] = (int)(BUCKET_SIZES_DIP[i] * density + 0.5f);
+        }
+    }
+
+    /**
+     * @param context any context; the application context is retained.
+     * @return the process-wide generator.
+     */
+    public static synchronized ThemeThumbnails getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeThumbnails(context.getApplicationContext());
+            ThemeChangeHub.getInstance(context).addListener(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param bucket one of the BUCKET_ constants.
+     * @return the longest edge of thumbnails in the bucket, in pixels.
+     */
+    public int getBucketSize(int bucket) {
+        return mBucketSizes[bucket];
+    }
+
+    /**
+     * Reads only the package and theme id at the cursor position of item,
+     * without taking a snapshot.
+     * @see #loadThumbnail(ThemeSnapshot, int, int)
+     */
+    public Bitmap loadThumbnail(ThemeItem item, int orientation, int bucket) {
+        return loadThumbnail(item.getPackageName(), item.getThemeId(), orientation, bucket);
+    }
+
+    /**
+     * Decodes a previously generated thumbnail. Only small files are read,
+     * so this is reasonable to call while binding views.
+     * @return the thumbnail, or null if it has not been generated for the
+     *         theme's current version.
+     */
+    public Bitmap loadThumbnail(ThemeSnapshot theme, int orientation, int bucket) {
+        return loadThumbnail(theme.getPackageName(), theme.getThemeId(), orientation, bucket);
+    }
+
+    private Bitmap loadThumbnail(String packageName, String themeId, int orientation,
+            int bucket) {
+        String prefix = getFilePrefix(packageName, themeId, orientation);
+        if (prefix == null) {
+            return null;
+        }
+        File file = new File(mDirectory, prefix + bucket + ".png");
+        if (!file.exists()) {
+            return null;
+        }
+        return BitmapFactory.decodeFile(file.getPath());
+    }
+
+    /**
+     * @see #requestThumbnail(ThemeSnapshot, int, int, Callback)
+     */
+    public void requestThumbnail(ThemeItem item, int orientation, int bucket, Callback callback) {
+        requestThumbnail(item.toSnapshot(), orientation, bucket, callback);
+    }
+
+    /**
+     * Generates the thumbnails for every bucket of theme in the background,
+     * if they do not already exist for its current version, then delivers
+     * the one requested. Concurrent requests for the same theme share one
+     * job. Must be called on the main thread.
+     */
+    public void requestThumbnail(final ThemeSnapshot theme, final int orientation, int bucket,
+            Callback callback) {
+        final String prefix = getFilePrefix(theme.getPackageName(), theme.getThemeId(),
+                orientation);
+        if (prefix == null) {
+            callback.onThumbnailLoaded(theme, bucket, null);
+            return;
+        }
+        synchronized (mPending) {
+            ArrayList<PendingCallback> callbacks = mPending.get(prefix);
+            if (callbacks != null) {
+                callbacks.add(new PendingCallback(bucket, callback));
+                return;
+            }
+            callbacks = new ArrayList<PendingCallback>();
+            callbacks.add(new PendingCallback(bucket, callback));
+            mPending.put(prefix, callbacks);
+        }
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                boolean generated = false;
+                try {
+                    generate(theme, orientation, prefix);
+                    generated = true;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unable to generate thumbnails for " + theme, e);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "Unable to generate thumbnails for " + theme, e);
+                } finally {
+                    /* Later requests for the theme must start a new job. */
+                    deliverPending(theme, orientation, prefix, generated);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the job for prefix, delivering the requested bucket to each of
+     * its callbacks, or null to all of them if generation failed.
+     */
+    private void deliverPending(final ThemeSnapshot theme, int orientation, String prefix,
+            boolean generated) {
+        final ArrayList<PendingCallback> callbacks;
+        synchronized (mPending) {
+            callbacks = mPending.remove(prefix);
+        }
+        for (final PendingCallback pending : callbacks) {
+            Bitmap loaded = null;
+            if (generated) {
+                try {
+                    loaded = loadThumbnail(theme, orientation, pending.bucket);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "Unable to load thumbnail for " + theme, e);
+                }
+            }
+            final Bitmap thumbnail = loaded;
+            mHandler.post(new Runnable() {
+                public void run() {
+                    pending.callback.onThumbnailLoaded(theme, pending.bucket, thumbnail);
+                }
+            });
+        }
+    }
+
+    public void onThemeApplied(Uri themeUri) {
+    }
+
+    public void onCatalogChanged() {
+    }
+
+    public void onPackageUpdated(String packageName) {
+        synchronized (mVersionCodes) {
+            mVersionCodes.remove(packageName);
+        }
+    }
+
+    public void onPackageRemoved(String packageName) {
+        synchronized (mVersionCodes) {
+            mVersionCodes.remove(packageName);
+        }
+    }
+
+    /**
+     * Deletes all persisted thumbnails.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void generate(ThemeSnapshot theme, int orientation, String prefix) {
+        if (new File(mDirectory, prefix + (mBucketSizes.length - 1) + ".png").exists()) {
+            return;
+        }
+        Uri source = theme.getThumbnailUri();
+        if (source == null) {
+            source = theme.getPreviewUri(orientation);
+        }
+        if (source == null) {
+            return;
+        }
+        int largest = mBucketSizes[mBucketSizes.length - 1];
+        Bitmap decoded;
+        try {
+            decoded = BitmapDecoder.decodeSampled(mContext.getContentResolver(), source,
+                    largest, largest);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to decode " + source, e);
+            return;
+        }
+        if (decoded == null) {
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+            decoded.recycle();
+            return;
+        }
+        deleteOtherVersions(theme, orientation, prefix);
+        /* Largest last so that the existence check above sees a complete set. */
+        for (int i = 0; i < mBucketSizes.length; i++) {
+            Bitmap scaled = BitmapDecoder.scaleToFit(decoded, mBucketSizes[i], mBucketSizes[i]);
+            write(scaled, new File(mDirectory, prefix + i + ".png"));
+            if (scaled != decoded) {
+                scaled.recycle();
+            }
+        }
+        decoded.recycle();
+    }
+
+    private void write(Bitmap bitmap, File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void deleteOtherVersions(ThemeSnapshot theme, int orientation, String prefix) {
+        String themePrefix = getThemePrefix(theme.getPackageName(), theme.getThemeId());
+        String orientationName = String.valueOf(orientation);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(themePrefix) && !name.startsWith(prefix)) {
+                    /* version_orientation_size_bucket.png */
+                    String[] parts = name.substring(themePrefix.length()).split("_");
+                    if (parts.length == 4 && parts[1].equals(orientationName)) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file name prefix for the theme's current version, or null
+     *         if its package is not installed. The system theme, which has
+     *         no package name, is always installed.
+     */
+    private String getFilePrefix(String packageName, String themeId, int orientation) {
+        int versionCode = getVersionCode(packageName);
+        if (versionCode == NOT_INSTALLED) {
+            return null;
+        }
+        /* Bucket sizes are part of the name so a density change regenerates. */
+        return getThemePrefix(packageName, themeId) + versionCode + "_" + orientation + "_" +
+                mBucketSizes[mBucketSizes.length - 1] + "_";
+    }
+
+    private int getVersionCode(String packageName) {
+        if (TextUtils.isEmpty(packageName)) {
+            return SYSTEM_VERSION_CODE;
+        }
+        synchronized (mVersionCodes) {
+            Integer versionCode = mVersionCodes.get(packageName);
+            if (versionCode != null) {
+                return versionCode;
+            }
+        }
+        int versionCode;
+        try {
+            versionCode = mContext.getPackageManager().getPackageInfo(packageName, 0)
+                    .versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            versionCode = NOT_INSTALLED;
+        }
+        synchronized (mVersionCodes) {
+            mVersionCodes.put(packageName, versionCode);
+        }
+        return versionCode;
+    }
+
+    private static String getThemePrefix(String packageName, String themeId) {
+        if (TextUtils.isEmpty(packageName)) {
+            packageName = SYSTEM_PACKAGE_NAME;
+        }
+        return encodeFileName(packageName) + "_" + encodeFileName(themeId) + "_";
+    }
+
+    private static String encodeFileName(String value) {
+        if (value == null) {
+            return "";
+        }
+        return Uri.encode(value).replace("_", "%5F");
+    }
+}
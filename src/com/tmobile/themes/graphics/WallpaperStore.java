@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.graphics;
+
+import com.tmobile.themes.ThemeChangeHub;
+import com.tmobile.themes.ThemesCacheGovernor;
+import com.tmobile.themes.provider.ThemeItem;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Content-addressed store of theme wallpapers. Many theme packages ship
+ * byte-identical wallpapers; the store hashes each wallpaper Uri's content
+ * once and maps every Uri with the same content to a single shared
+ * {@link Entry}, so that each distinct image is decoded and cached once no
+ * matter how many themes use it.
+ * <p>
+ * Entries are reference counted. Callers {@link #acquire} an entry, use its
+ * bitmaps and {@link #release} it; released entries are kept, least
+ * recently released first, within a byte budget for unreferenced bitmaps.
+ * The store is also registered with the {@link ThemesCacheGovernor}, which
+ * may drop unreferenced entries sooner.
+ * <p>
+ * The content hash of each Uri is remembered until the
+ * {@link ThemeChangeHub} reports a catalog change or a package removal,
+ * since either may change or remove the content behind a Uri. An entry
+ * remembers every Uri found to hold its image, and decodes from the next
+ * one if the first can no longer be read.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      WallpaperStore store = WallpaperStore.getInstance(context);
+ *      WallpaperStore.Entry entry = store.acquireWallpaper(context, item);
+ *      if (entry != null) {
+ *          try {
+ *              Bitmap thumb = entry.getBitmap(width, height);
+ *              // ...
+ *          } finally {
+ *              store.release(entry);
+ *          }
+ *      }
+ * </pre>
+ * @author T-Mobile USA
+ */
+public class WallpaperStore implements ThemeChangeHub.Listener {
+    private static final long DEFAULT_MAX_UNREFERENCED_BYTES = 4 * 1024 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static WallpaperStore sInstance;
+
+    private final ContentResolver mResolver;
+
+    /*
+     * Wallpaper Uri to content hash. Kept across eviction, since hashes are
+     * small, but cleared on any change which may alter a Uri's content.
+     */
+    private final HashMap<String, String> mHashesByUri = new HashMap<String, String>();
+
+    /* Content hash to entry. */
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /* Entries without references, least recently released first. */
+    private final LinkedHashMap<String, Entry> mUnreferenced = new LinkedHashMap<String, Entry>();
+
+    private long mMaxUnreferencedBytes = DEFAULT_MAX_UNREFERENCED_BYTES;
+
+    private WallpaperStore(Context context) {
+        mResolver = context.getContentResolver();
+        ThemesCacheGovernor.getInstance().register("WallpaperStore",
+                ThemesCacheGovernor.PRIORITY_NORMAL, new ThemesCacheGovernor.ManagedCache() {
+            public long getByteCount() {
+                return WallpaperStore.this.getByteCount();
+            }
+
+            public void trimTo(long maxBytes) {
+                synchronized (WallpaperStore.this) {
+                    long referenced = 0;
+                    for (Entry entry : mEntries.values()) {
+                        if (entry.mRefCount > 0) {
+                            referenced += entry.getByteCountLocked();
+                        }
+                    }
+                    trimUnreferenced(Math.max(0, maxBytes - referenced));
+                }
+            }
+        });
+    }
+
+    /**
+     * @param context any context; the application context is retained.
+     * @return the process-wide store.
+     */
+    public static synchronized WallpaperStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WallpaperStore(context.getApplicationContext());
+            ThemeChangeHub.getInstance(context).addListener(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Takes a reference to the entry for item's wallpaper.
+     * @return the entry, or null if the theme has no wallpaper.
+     * @see #acquire(Uri)
+     */
+    public Entry acquireWallpaper(Context context, ThemeItem item) throws IOException {
+        Uri uri = item.getWallpaperUri(context);
+        return (uri != null ? acquire(uri) : null);
+    }
+
+    /**
+     * Takes a reference to the entry for item's lock screen wallpaper.
+     * @return the entry, or null if the theme has no lock screen wallpaper.
+     * @see #acquire(Uri)
+     */
+    public Entry acquireLockWallpaper(Context context, ThemeItem item) throws IOException {
+        Uri uri = item.getLockWallpaperUri(context);
+        return (uri != null ? acquire(uri) : null);
+    }
+
+    /**
+     * Takes a reference to the shared entry holding the content of uri. The
+     * first time a Uri is seen its content is read and hashed, so this must
+     * not be called on the main thread.
+     * @param uri a wallpaper Uri.
+     * @return the entry, which must be passed to {@link #release} when done.
+     * @throws IOException if the content of uri cannot be read.
+     */
+    public Entry acquire(Uri uri) throws IOException {
+        String key = uri.toString();
+        String hash;
+        synchronized (this) {
+            hash = mHashesByUri.get(key);
+        }
+        if (hash == null) {
+            hash = hashContent(uri);
+            synchronized (this) {
+                mHashesByUri.put(key, hash);
+            }
+        }
+        synchronized (this) {
+            Entry entry = mEntries.get(hash);
+            if (entry == null) {
+                entry = new Entry(hash);
+                mEntries.put(hash, entry);
+            }
+            if (!entry.mSourceUris.contains(uri)) {
+                entry.mSourceUris.add(uri);
+            }
+            if (entry.mRefCount++ == 0) {
+                mUnreferenced.remove(hash);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Releases a reference taken by one of the acquire methods. Bitmaps
+     * obtained from the entry must not be used afterwards.
+     */
+    public synchronized void release(Entry entry) {
+        if (entry.mRefCount <= 0) {
+            throw new IllegalStateException("Entry " + entry.mContentHash + " released too often");
+        }
+        if (--entry.mRefCount == 0) {
+            mUnreferenced.put(entry.mContentHash, entry);
+            trimUnreferenced(mMaxUnreferencedBytes);
+        }
+    }
+
+    /**
+     * @param maxBytes the memory unreferenced bitmaps may hold before the
+     *            least recently released are dropped.
+     */
+    public synchronized void setMaxUnreferencedBytes(long maxBytes) {
+        mMaxUnreferencedBytes = maxBytes;
+        trimUnreferenced(maxBytes);
+    }
+
+    /**
+     * Drops the least recently released entries until unreferenced bitmaps
+     * hold at most maxBytes. Entries in use are never dropped.
+     */
+    public synchronized void trimUnreferenced(long maxBytes) {
+        long bytes = 0;
+        for (Entry entry : mUnreferenced.values()) {
+            bytes += entry.getByteCountLocked();
+        }
+        Iterator<Entry> i = mUnreferenced.values().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            Entry entry = i.next();
+            bytes -= entry.getByteCountLocked();
+            i.remove();
+            mEntries.remove(entry.mContentHash);
+            entry.mBitmaps.clear();
+        }
+    }
+
+    /**
+     * @return the memory held by all decoded bitmaps in the store.
+     */
+    public synchronized long getByteCount() {
+        long bytes = 0;
+        for (Entry entry : mEntries.values()) {
+            bytes += entry.getByteCountLocked();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of distinct images in the store.
+     */
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Forgets the content hash of every Uri, so that each is hashed again
+     * when next acquired. Decoded bitmaps are kept.
+     */
+    public synchronized void invalidateHashes() {
+        mHashesByUri.clear();
+    }
+
+    public void onThemeApplied(Uri themeUri) {
+    }
+
+    public void onCatalogChanged() {
+        invalidateHashes();
+    }
+
+    public void onPackageUpdated(String packageName) {
+        invalidateHashes();
+    }
+
+    public void onPackageRemoved(String packageName) {
+        invalidateHashes();
+    }
+
+    private String hashContent(Uri uri) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static abstract class SourceReader<T> {
+        abstract T read(Uri uri) throws IOException;
+    }
+
+    /**
+     * A distinct wallpaper image, shared by every theme which uses it.
+     */
+    public final class Entry {
+        private final String mContentHash;
+
+        /* Every Uri found to hold this image, in the order they were seen. */
+        private final ArrayList<Uri> mSourceUris = new ArrayList<Uri>(1);
+
+        private final HashMap<Long, Bitmap> mBitmaps = new HashMap<Long, Bitmap>();
+        private int mRefCount;
+
+        private Entry(String contentHash) {
+            mContentHash = contentHash;
+        }
+
+        /**
+         * @return the hash of the image's content.
+         */
+        public String getContentHash() {
+            return mContentHash;
+        }
+
+        /**
+         * Returns the image scaled to fit within maxWidth by maxHeight,
+         * decoding it on first request for that size. Every theme sharing
+         * the image shares the result. Must not be called on the main thread
+         * unless the size has been requested before.
+         * @return the bitmap, or null if the image cannot be decoded.
+         * @throws IOException if none of the Uris holding the image can be
+         *             read.
+         */
+        public Bitmap getBitmap(final int maxWidth, final int maxHeight) throws IOException {
+            Long key = ((long)maxWidth << 32) | (maxHeight & 0xffffffffL);
+            synchronized (WallpaperStore.this) {
+                Bitmap bitmap = mBitmaps.get(key);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+            Bitmap decoded = readFromAnySource(new SourceReader<Bitmap>() {
+                @Override
+                Bitmap read(Uri uri) throws IOException {
+                    return BitmapDecoder.decodeSampled(mResolver, uri, maxWidth, maxHeight);
+                }
+            });
+            if (decoded == null) {
+                return null;
+            }
+            Bitmap scaled = BitmapDecoder.scaleToFit(decoded, maxWidth, maxHeight);
+            if (scaled != decoded) {
+                decoded.recycle();
+            }
+            synchronized (WallpaperStore.this) {
+                Bitmap existing = mBitmaps.get(key);
+                if (existing != null) {
+                    scaled.recycle();
+                    return existing;
+                }
+                mBitmaps.put(key, scaled);
+            }
+            ThemesCacheGovernor.getInstance().enforceBudget();
+            return scaled;
+        }
+
+        /**
+         * Estimates the memory {@link #getBitmap} would hold for a size,
+         * reading only the image's bounds, so that callers can decline to
+         * decode images they have no room for. Exact if the size has been
+         * requested before. Must not be called on the main thread unless
+         * the size has been requested before.
+         * @return the estimate, or -1 if the image cannot be decoded.
+         * @throws IOException if none of the Uris holding the image can be
+         *             read.
+         */
+        public long estimateByteCount(final int maxWidth, final int maxHeight)
+                throws IOException {
+            Long key = ((long)maxWidth << 32) | (maxHeight & 0xffffffffL);
+            synchronized (WallpaperStore.this) {
+                Bitmap bitmap = mBitmaps.get(key);
+                if (bitmap != null) {
+                    return BitmapDecoder.getByteCount(bitmap);
+                }
+            }
+            return readFromAnySource(new SourceReader<Long>() {
+                @Override
+                Long read(Uri uri) throws IOException {
+                    return BitmapDecoder.estimateByteCount(mResolver, uri, maxWidth, maxHeight);
+                }
+            });
+        }
+
+        /**
+         * Reads from each source Uri in turn until one can be read,
+         * forgetting those which cannot.
+         */
+        private <T> T readFromAnySource(SourceReader<T> reader) throws IOException {
+            IOException failure = null;
+            while (true) {
+                Uri uri;
+                synchronized (WallpaperStore.this) {
+                    if (mSourceUris.isEmpty()) {
+                        break;
+                    }
+                    uri = mSourceUris.get(0);
+                }
+                try {
+                    return reader.read(uri);
+                } catch (IOException e) {
+                    failure = e;
+                    synchronized (WallpaperStore.this) {
+                        mSourceUris.remove(uri);
+                        mHashesByUri.remove(uri.toString());
+                    }
+                }
+            }
+            throw (failure != null ? failure
+                    : new IOException("No readable source for " + mContentHash));
+        }
+
+        /**
+         * @return the number of references currently held.
+         */
+        public int getRefCount() {
+            synchronized (WallpaperStore.this) {
+                return mRefCount;
+            }
+        }
+
+        private long getByteCountLocked() {
+            long bytes = 0;
+            for (Bitmap bitmap : mBitmaps.values()) {
+                bytes += BitmapDecoder.getByteCount(bitmap);
+            }
+            return bytes;
+        }
+    }
+}
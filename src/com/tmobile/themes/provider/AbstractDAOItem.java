@@ -20,6 +20,8 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 
+import java.util.Arrays;
+
 /**
  * AbstractDAOItem provides an easy way to access data in a {@link Cursor}.
  * For T-Mobile internal use.
@@ -29,6 +31,9 @@ import android.net.Uri;
 public abstract class AbstractDAOItem {
     protected Cursor mCursor;
 
+    /* Non-null only for items created while tracking is enabled. */
+    private DAOItemTracker.Record mTrackingRecord;
+
     /**
      * Creates an {@link AbstractDAOItem} for the specified {@link Cursor}.
      * @param c a valid {@link Cursor} for the {@link AbstractDAOItem} type.
@@ -38,6 +43,7 @@ public abstract class AbstractDAOItem {
             throw new IllegalArgumentException("Cursor cannot be null");
         }
         mCursor = c;
+        mTrackingRecord = DAOItemTracker.open(this, c);
     }
 
     /**
@@ -52,6 +58,10 @@ public abstract class AbstractDAOItem {
      */
     public void close() {
         mCursor.close();
+        if (mTrackingRecord != null) {
+            mTrackingRecord.onClose();
+            mTrackingRecord = null;
+        }
     }
 
     /**
@@ -84,12 +94,92 @@ public abstract class AbstractDAOItem {
         return (uriString != null ? Uri.parse(uriString) : null);
     }
 
+    /**
+     * @param columnIndex the column index, or -1 if the column is not part of
+     *            the projection.
+     * @return the String value of the column or null if the column is absent.
+     */
+    protected String getStringNullSafe(int columnIndex) {
+        return (columnIndex >= 0 ? mCursor.getString(columnIndex) : null);
+    }
+
+    /**
+     * @param columnIndex the column index, or -1 if the column is not part of
+     *            the projection.
+     * @param defaultValue the value to return if the column is absent.
+     * @return the int value of the column or defaultValue if the column is
+     *         absent.
+     */
+    protected int getIntNullSafe(int columnIndex, int defaultValue) {
+        return (columnIndex >= 0 ? mCursor.getInt(columnIndex) : defaultValue);
+    }
+
+    /**
+     * @param columnIndex the column index, or -1 if the column is not part of
+     *            the projection.
+     * @param defaultValue the value to return if the column is absent.
+     * @return the long value of the column or defaultValue if the column is
+     *         absent.
+     */
+    protected long getLongNullSafe(int columnIndex, long defaultValue) {
+        return (columnIndex >= 0 ? mCursor.getLong(columnIndex) : defaultValue);
+    }
+
+    /**
+     * @param columnIndex the column index, or -1 if the column is not part of
+     *            the projection.
+     * @param defaultValue the value to return if the column is absent.
+     * @return true if the column is non-zero, or defaultValue if the column is
+     *         absent.
+     */
+    protected boolean getBooleanNullSafe(int columnIndex, boolean defaultValue) {
+        return (columnIndex >= 0 ? mCursor.getInt(columnIndex) != 0 : defaultValue);
+    }
+
     /**
      * @param context the Callers {@link Context}.
      * @return The {@link Uri} for the underlying {@link Cursor}.
      */
     public abstract Uri getUri(Context context);
 
+    /**
+     * Caches the indices of a fixed set of columns for the most recently seen
+     * projection. DAO items built over cursors from the same query then
+     * share one lookup instead of resolving every column on construction.
+     */
+    protected static final class ColumnIndexCache {
+        private final String[] mColumns;
+        private String[] mColumnNames;
+        private int[] mIndices;
+
+        /**
+         * @param columns the columns to resolve, in the order their indices
+         *            are returned by {@link #getIndices}.
+         */
+        public ColumnIndexCache(String... columns) {
+            mColumns = columns;
+        }
+
+        /**
+         * @param c the cursor to resolve against.
+         * @return the index of each column, or -1 for columns absent from the
+         *         cursor. The returned array must not be modified.
+         */
+        public synchronized int[] getIndices(Cursor c) {
+            String[] columnNames = c.getColumnNames();
+            if (mIndices == null || (columnNames != mColumnNames &&
+                    !Arrays.equals(columnNames, mColumnNames))) {
+                int[] indices = new int[mColumns.length];
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = c.getColumnIndex(mColumns[i]);
+                }
+                mColumnNames = columnNames;
+                mIndices = indices;
+            }
+            return mIndices;
+        }
+    }
+
     protected abstract static class Creator<T extends AbstractDAOItem> {
         /**
          * Creates an {@link AbstractDAOItem} for the specified {@link Uri} with
@@ -116,7 +206,8 @@ public abstract class AbstractDAOItem {
          * @param c a valid {@link Cursor} for the {@link AbstractDAOItem} type.
          * @return an {@link AbstractDAOItem} positioned to the first entry in
          *         the {@link Cursor}. If there are no entries, null is
-         *         returned.
+         *         returned. The item owns the cursor and must be closed.
+         * @see DAOItemTracker
          */
         public T newInstance(Cursor c) {
             if (c != null) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import android.text.TextUtils;
+
+/**
+ * Values of {@link StyleSnapshot} derived from more than one column. Shares
+ * the name fallback with {@link StyleItem#getName()}.
+ */
+abstract class AbstractStyleSnapshot implements StyleDAO {
+    /**
+     * @return the style name, or the theme name if the theme does not
+     *         specify a style name.
+     */
+    public String getName() {
+        return getName(getStyleName(), getThemeName());
+    }
+
+    static String getName(String styleName, String themeName) {
+        if (TextUtils.isEmpty(styleName)) {
+            return themeName;
+        }
+        return styleName;
+    }
+}
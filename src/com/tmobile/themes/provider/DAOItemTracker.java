@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Optional instrumentation of the cursors wrapped by {@link AbstractDAOItem}s,
+ * whether created by a constructor such as {@code new ThemeItem(c)} or by
+ * {@link AbstractDAOItem.Creator}. When enabled, each cursor records when the
+ * first item wrapping it was created and, for a sample of cursors, where.
+ * Closing it, through {@link AbstractDAOItem#close()} or directly, records
+ * how long it was held. A cursor garbage collected without being closed is
+ * reported as a leak along with its allocation stack if sampled. Items
+ * sharing a cursor, as adapters do, share one record.
+ * <p>
+ * Tracking is off by default. While off, creating and closing items costs a
+ * single flag check and no per-item allocation.
+ * @author T-Mobile USA
+ */
+public final class DAOItemTracker {
+    private static final String TAG = "DAOItemTracker";
+
+    /* Upper bounds, in milliseconds, of each hold time bucket but the last. */
+    private static final long[] HOLD_TIME_BOUNDS = { 10, 100, 1000, 10000, 60000 };
+
+    private static volatile boolean sEnabled;
+    private static volatile int sStackSampleRate = 1;
+
+    private static final Object sLock = new Object();
+    private static int sOpenCount;
+    private static int sLiveCount;
+    private static int sLeakCount;
+    private static final long[] sHoldTimeHistogram = new long[HOLD_TIME_BOUNDS.length + 1];
+
+    /* Open records by cursor, so that items sharing a cursor share a record. */
+    private static final WeakHashMap<Cursor, WeakReference<Record>> sRecords =
+            new WeakHashMap<Cursor, WeakReference<Record>>();
+
+    private DAOItemTracker() {}
+
+    /**
+     * Enables or disables tracking. Only items created while tracking is
+     * enabled are tracked.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param rate capture the allocation stack of one in every rate tracked
+     *            items, or 0 to never capture stacks. Defaults to 1.
+     */
+    public static void setStackSampleRate(int rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate cannot be negative");
+        }
+        sStackSampleRate = rate;
+    }
+
+    /**
+     * @return the number of tracked cursors which are currently open.
+     */
+    public static int getLiveCount() {
+        synchronized (sLock) {
+            return sLiveCount;
+        }
+    }
+
+    /**
+     * @return the number of tracked cursors which were garbage collected
+     *         while open.
+     */
+    public static int getLeakCount() {
+        synchronized (sLock) {
+            return sLeakCount;
+        }
+    }
+
+    /**
+     * @return the upper bound in milliseconds of each bucket of
+     *         {@link #getHoldTimeHistogram()} except the last, which is
+     *         unbounded.
+     */
+    public static long[] getHoldTimeBucketBounds() {
+        return HOLD_TIME_BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of closed cursors whose hold time fell in each
+     *         bucket.
+     */
+    public static long[] getHoldTimeHistogram() {
+        synchronized (sLock) {
+            return sHoldTimeHistogram.clone();
+        }
+    }
+
+    /**
+     * Clears all counters. Cursors open at the time are still tracked.
+     */
+    public static void reset() {
+        synchronized (sLock) {
+            sLeakCount = 0;
+            for (int i = 0; i < sHoldTimeHistogram.length; i++) {
+                sHoldTimeHistogram[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Dumps the counters to the log.
+     */
+    public static void dump() {
+        long[] histogram = getHoldTimeHistogram();
+        StringBuilder b = new StringBuilder();
+        b.append("live=").append(getLiveCount());
+        b.append("; leaked=").append(getLeakCount());
+        b.append("; holdTimes={");
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(i < HOLD_TIME_BOUNDS.length ? "<" + HOLD_TIME_BOUNDS[i] + "ms" : ">=" +
+                    HOLD_TIME_BOUNDS[HOLD_TIME_BOUNDS.length - 1] + "ms");
+            b.append('=').append(histogram[i]);
+        }
+        b.append('}');
+        Log.i(TAG, b.toString());
+    }
+
+    /**
+     * @return the record for the cursor of a newly created item, shared with
+     *         any other open item wrapping the same cursor, or null if
+     *         tracking is disabled.
+     */
+    static Record open(AbstractDAOItem item, Cursor c) {
+        if (!sEnabled) {
+            return null;
+        }
+        Record record;
+        int rate = sStackSampleRate;
+        synchronized (sLock) {
+            WeakReference<Record> ref = sRecords.get(c);
+            record = (ref != null ? ref.get() : null);
+            if (record != null && !record.mClosed) {
+                return record;
+            }
+            if (c.isClosed()) {
+                return null;
+            }
+            sOpenCount++;
+            sLiveCount++;
+            Throwable stack = null;
+            if (rate > 0 && sOpenCount % rate == 0) {
+                stack = new Throwable("Allocation of " + item.getClass().getName());
+            }
+            record = new Record(item.getClass().getName(), stack, c);
+            sRecords.put(c, new WeakReference<Record>(record));
+        }
+        /*
+         * The cursor holds the record as an observer, so the record lives
+         * exactly as long as the cursor and hears when it is closed directly.
+         */
+        c.registerDataSetObserver(record);
+        return record;
+    }
+
+    private static int getBucket(long holdTime) {
+        for (int i = 0; i < HOLD_TIME_BOUNDS.length; i++) {
+            if (holdTime < HOLD_TIME_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return HOLD_TIME_BOUNDS.length;
+    }
+
+    /**
+     * Tracking state for a single cursor. Registered as an observer of the
+     * cursor, so it is finalized along with it.
+     */
+    static final class Record extends DataSetObserver {
+        private final String mType;
+        private final Throwable mStack;
+        private final Cursor mCursor;
+        private final long mOpenTime = SystemClock.uptimeMillis();
+        private boolean mClosed;
+
+        private Record(String type, Throwable stack, Cursor cursor) {
+            mType = type;
+            mStack = stack;
+            mCursor = cursor;
+        }
+
+        /**
+         * Closing a cursor invalidates it; so does deactivating it, which
+         * is not a close.
+         */
+        @Override
+        public void onInvalidated() {
+            if (mCursor.isClosed()) {
+                onClose();
+            }
+        }
+
+        void onClose() {
+            synchronized (sLock) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                sLiveCount--;
+                sHoldTimeHistogram[getBucket(SystemClock.uptimeMillis() - mOpenTime)]++;
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                boolean leaked;
+                synchronized (sLock) {
+                    leaked = !mClosed && !mCursor.isClosed();
+                    if (!mClosed) {
+                        /* Closed without notification counts as closed. */
+                        mClosed = true;
+                        sLiveCount--;
+                        if (leaked) {
+                            sLeakCount++;
+                        }
+                    }
+                }
+                if (leaked) {
+                    Log.w(TAG, "Cursor of " + mType + " finalized without close() after " +
+                            (SystemClock.uptimeMillis() - mOpenTime) + "ms", mStack);
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
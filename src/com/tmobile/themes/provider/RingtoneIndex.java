@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.ThemeManager;
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Immutable index of the distinct ringtones or notification ringtones
+ * provided by themes, ordered by the provider's collation key columns
+ * ({@link ThemeColumns#RINGTONE_NAME_KEY},
+ * {@link ThemeColumns#NOTIFICATION_RINGTONE_NAME_KEY}) so that building it
+ * requires no locale-sensitive comparisons. Themes sharing a ringtone Uri
+ * share one entry. {@link ThemeManager#SILENT_RINGTONE_URI} is always
+ * present, as the first entry.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      RingtoneIndex index = RingtoneIndex.build(context, RingtoneIndex.TYPE_RINGTONE);
+ *      int selected = index.indexOf(currentRingtoneUri);
+ * </pre>
+ * @author T-Mobile USA
+ */
+public final class RingtoneIndex {
+    public static final int TYPE_RINGTONE = 0;
+    public static final int TYPE_NOTIFICATION = 1;
+
+    private static final String[][] PROJECTIONS = {
+        {
+            ThemeColumns.THEME_PACKAGE,
+            ThemeColumns.THEME_ID,
+            ThemeColumns.RINGTONE_URI,
+            ThemeColumns.RINGTONE_NAME,
+            ThemeColumns.RINGTONE_NAME_KEY,
+        },
+        {
+            ThemeColumns.THEME_PACKAGE,
+            ThemeColumns.THEME_ID,
+            ThemeColumns.NOTIFICATION_RINGTONE_URI,
+            ThemeColumns.NOTIFICATION_RINGTONE_NAME,
+            ThemeColumns.NOTIFICATION_RINGTONE_NAME_KEY,
+        },
+    };
+
+    private static final String SILENT_URI = ThemeManager.SILENT_RINGTONE_URI.toString();
+
+    private static final Comparator<Entry> KEY_ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            if (a.isSilent() != b.isSilent()) {
+                return a.isSilent() ? -1 : 1;
+            }
+            int result = compareNullsLast(a.mNameKey, b.mNameKey);
+            return (result != 0 ? result : a.mUri.compareTo(b.mUri));
+        }
+    };
+
+    private final int mType;
+
+    /* Entries in collation key order. */
+    private final Entry[] mEntries;
+
+    /* Uris in binary order, and the position in mEntries of each. */
+    private final String[] mSortedUris;
+    private final int[] mPositionsByUri;
+
+    private RingtoneIndex(int type, Entry[] entries) {
+        mType = type;
+        mEntries = entries;
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return mEntries[a].mUri.compareTo(mEntries[b].mUri);
+            }
+        });
+        mSortedUris = new String[entries.length];
+        mPositionsByUri = new int[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            mSortedUris[i] = entries[order[i]].mUri;
+            mPositionsByUri[i] = order[i];
+        }
+    }
+
+    /**
+     * Queries the provider and builds an index. Must not be called on the
+     * main thread.
+     * @param context the context of the caller.
+     * @param type {@link #TYPE_RINGTONE} or {@link #TYPE_NOTIFICATION}.
+     */
+    public static RingtoneIndex build(Context context, int type) {
+        checkType(type);
+        Cursor c = Themes.listThemes(context, PROJECTIONS[type], PROJECTIONS[type][4]);
+        try {
+            return build(context, c, type);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Builds an index from a cursor which must include the package, theme
+     * id and the ringtone Uri, name and name key columns for type. The
+     * cursor is left open and its position is undefined afterwards.
+     * @param context the context of the caller.
+     * @param c the cursor, or null for an index holding only silent.
+     * @param type {@link #TYPE_RINGTONE} or {@link #TYPE_NOTIFICATION}.
+     */
+    public static RingtoneIndex build(Context context, Cursor c, int type) {
+        checkType(type);
+        HashMap<String, Entry> entriesByUri = new HashMap<String, Entry>();
+        Entry silent = new Entry(SILENT_URI, null, null);
+        entriesByUri.put(SILENT_URI, silent);
+        if (c != null && c.moveToFirst()) {
+            String[] projection = PROJECTIONS[type];
+            int packageColumn = c.getColumnIndexOrThrow(projection[0]);
+            int themeIdColumn = c.getColumnIndexOrThrow(projection[1]);
+            int uriColumn = c.getColumnIndexOrThrow(projection[2]);
+            int nameColumn = c.getColumnIndex(projection[3]);
+            int keyColumn = c.getColumnIndex(projection[4]);
+            do {
+                String uri = c.getString(uriColumn);
+                if (uri == null) {
+                    continue;
+                }
+                Entry entry = entriesByUri.get(uri);
+                if (entry == null) {
+                    entry = new Entry(uri, nameColumn >= 0 ? c.getString(nameColumn) : null,
+                            keyColumn >= 0 ? c.getString(keyColumn) : null);
+                    entriesByUri.put(uri, entry);
+                }
+                entry.mThemes.add(Themes.getThemeUri(context, c.getString(packageColumn),
+                        c.getString(themeIdColumn)));
+            } while (c.moveToNext());
+        }
+        Entry[] entries = entriesByUri.values().toArray(new Entry[entriesByUri.size()]);
+        Arrays.sort(entries, KEY_ORDER);
+        return new RingtoneIndex(type, entries);
+    }
+
+    private static void checkType(int type) {
+        if (type != TYPE_RINGTONE && type != TYPE_NOTIFICATION) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private static int compareNullsLast(String a, String b) {
+        if (a == null) {
+            return (b == null ? 0 : 1);
+        }
+        return (b == null ? -1 : a.compareTo(b));
+    }
+
+    /**
+     * @return {@link #TYPE_RINGTONE} or {@link #TYPE_NOTIFICATION}.
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return the number of distinct ringtones, including silent.
+     */
+    public int size() {
+        return mEntries.length;
+    }
+
+    /**
+     * @param position the position in collation key order.
+     */
+    public Entry get(int position) {
+        return mEntries[position];
+    }
+
+    /**
+     * Finds a ringtone by Uri in O(log n).
+     * @param uri the ringtone Uri. Null is treated as silent, as returned by
+     *            the Android ringtone manager.
+     * @return the position of the ringtone, or -1 if no theme provides it.
+     */
+    public int indexOf(Uri uri) {
+        String key = (uri != null ? uri.toString() : SILENT_URI);
+        int i = Arrays.binarySearch(mSortedUris, key);
+        return (i >= 0 ? mPositionsByUri[i] : -1);
+    }
+
+    /**
+     * @return the entry for uri, or null if no theme provides it.
+     * @see #indexOf(Uri)
+     */
+    public Entry find(Uri uri) {
+        int position = indexOf(uri);
+        return (position >= 0 ? mEntries[position] : null);
+    }
+
+    /**
+     * A distinct ringtone and the themes which provide it.
+     */
+    public static final class Entry {
+        private final String mUri;
+        private final String mName;
+        private final String mNameKey;
+        private final ArrayList<Uri> mThemes = new ArrayList<Uri>(1);
+
+        private Entry(String uri, String name, String nameKey) {
+            mUri = uri;
+            mName = name;
+            mNameKey = nameKey;
+        }
+
+        /**
+         * @return the ringtone Uri.
+         */
+        public Uri getUri() {
+            return Uri.parse(mUri);
+        }
+
+        /**
+         * @return true if this entry is {@link ThemeManager#SILENT_RINGTONE_URI}.
+         */
+        public boolean isSilent() {
+            return mUri.equals(SILENT_URI);
+        }
+
+        /**
+         * @return the display name of the ringtone, or null if unknown or
+         *         silent.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the collation key of the ringtone name.
+         */
+        public String getNameKey() {
+            return mNameKey;
+        }
+
+        /**
+         * @return the number of themes providing this ringtone, which may be
+         *         zero for silent.
+         */
+        public int getThemeCount() {
+            return mThemes.size();
+        }
+
+        /**
+         * @param index the index of the theme, in provider order.
+         * @return the {@link Themes#getThemeUri theme Uri}.
+         */
+        public Uri getThemeUri(int index) {
+            return mThemes.get(index);
+        }
+    }
+}
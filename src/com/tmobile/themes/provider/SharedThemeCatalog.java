@@ -0,0 +1,672 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.ThemesCacheGovernor;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.MemoryFile;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only view of a theme catalog published by the theme provider in
+ * shared memory, so that every process displaying themes shares one copy
+ * and can detect updates without IPC.
+ * <p>
+ * On device the region is an ashmem {@link MemoryFile} handed out by the
+ * provider for {@link Themes#SHARED_CATALOG_URI}, which readers map through
+ * a {@link MemoryFile} of their own since ashmem descriptors report no size
+ * to {@link FileChannel#map}. On a plain JVM a memory mapped file stands in
+ * for it. The region starts with a header:
+ *
+ * <pre>
+ *   long  sequence, odd while the publisher is writing
+ *   long  generation, incremented by every publish
+ *   int   stale, non-zero once the publisher has moved to a new region
+ *   int   length of the current catalog
+ *   long  CRC32 of the generation, offset and catalog index
+ *   int   offset of the current catalog from the start of the region
+ * </pre>
+ *
+ * followed by catalogs in the {@link ThemeCatalogCodec} layout. Each
+ * publish appends its catalog after the previous one and never rewrites
+ * the bytes of a published catalog; once a region is full the publisher
+ * moves to a new one and marks the old one stale.
+ * <p>
+ * Readers compare the generation to detect updates, and copy only the
+ * catalog's index (its header and row table) under the sequence, which
+ * they re-read to detect a concurrent publish. Rows are decoded straight
+ * out of the region when first requested, which is safe because the
+ * publisher never overwrites them. Neither side can order its accesses to
+ * the shared region with memory barriers, so the sequence alone does not
+ * guarantee a consistent read; readers verify the checksum of the index
+ * and of each row, and retry on a mismatch.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      SharedThemeCatalog shared = SharedThemeCatalog.open(context);
+ *      ThemeCatalog catalog = shared.getCatalog();
+ *      // Later, e.g. in onResume():
+ *      if (shared.hasChanged()) {
+ *          catalog = shared.getCatalog();
+ *      }
+ * </pre>
+ * @author T-Mobile USA
+ */
+public final class SharedThemeCatalog {
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_GENERATION = 8;
+    private static final int OFFSET_STALE = 16;
+    private static final int OFFSET_LENGTH = 20;
+    private static final int OFFSET_CHECKSUM = 24;
+    private static final int OFFSET_DATA = 32;
+    private static final int HEADER_SIZE = 40;
+
+    /* Catalogs a new region holds before the publisher moves on again. */
+    private static final int REGION_CAPACITY = 3;
+
+    private static final int MAX_READ_ATTEMPTS = 100;
+
+    private final Opener mOpener;
+    private View mView;
+    private long mGeneration = -1;
+
+    /* Catalogs handed out that may still decode rows from mView. */
+    private final ArrayList<WeakReference<ThemeCatalog>> mLazyCatalogs =
+            new ArrayList<WeakReference<ThemeCatalog>>();
+
+    /* The decoded catalog of mGeneration. May be dropped under memory pressure. */
+    private ThemeCatalog mCatalog;
+
+    /* Registered weakly, so held here until closed. */
+    private final ThemesCacheGovernor.ManagedCache mCatalogCache =
+            new ThemesCacheGovernor.ManagedCache() {
+        public long getByteCount() {
+            synchronized (SharedThemeCatalog.this) {
+                return (mCatalog != null ? mCatalog.getByteCount() : 0);
+            }
+        }
+
+        public void trimTo(long maxBytes) {
+            synchronized (SharedThemeCatalog.this) {
+                if (mCatalog != null && mCatalog.getByteCount() > maxBytes) {
+                    /* Read again from shared memory on the next call. */
+                    mCatalog = null;
+                }
+            }
+        }
+    };
+
+    private interface Opener {
+        View open() throws IOException;
+    }
+
+    private SharedThemeCatalog(Opener opener) throws IOException {
+        mOpener = opener;
+        mView = opener.open();
+        ThemesCacheGovernor.getInstance().registerWeakly("SharedThemeCatalog",
+                ThemesCacheGovernor.PRIORITY_NORMAL, mCatalogCache);
+    }
+
+    /**
+     * Maps the catalog published by the theme provider. This costs one
+     * provider call; subsequent reads and update checks do not.
+     * @param context the context of the caller.
+     * @throws IOException if the provider does not publish a catalog.
+     */
+    public static SharedThemeCatalog open(final Context context) throws IOException {
+        return new SharedThemeCatalog(new Opener() {
+            public View open() throws IOException {
+                AssetFileDescriptor afd = context.getContentResolver()
+                        .openAssetFileDescriptor(Themes.SHARED_CATALOG_URI, "r");
+                if (afd == null) {
+                    throw new IOException("No shared catalog");
+                }
+                try {
+                    return new AshmemView(afd);
+                } catch (IOException e) {
+                    afd.close();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Maps a catalog published to a file by {@link Publisher#createMapped}.
+     * @param file the published file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static SharedThemeCatalog open(final File file) throws IOException {
+        return new SharedThemeCatalog(new Opener() {
+            public View open() throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    return new MappedView(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                            in.getChannel().size()));
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the generation of the catalog currently published. Reads
+     *         shared memory only.
+     */
+    public synchronized long getGeneration() throws IOException {
+        return mView.getLong(OFFSET_GENERATION);
+    }
+
+    /**
+     * @return true if the published catalog differs from the one last
+     *         returned by {@link #getCatalog}. Reads shared memory only.
+     */
+    public synchronized boolean hasChanged() throws IOException {
+        return mGeneration < 0 || mView.getInt(OFFSET_STALE) != 0 ||
+                mView.getLong(OFFSET_GENERATION) != mGeneration;
+    }
+
+    /**
+     * Returns the published catalog, reading its index only if it has
+     * changed since the last call. Rows are decoded as they are requested.
+     * @throws IOException if the region is corrupt or could not be reopened.
+     */
+    public synchronized ThemeCatalog getCatalog() throws IOException {
+        if (mView.getInt(OFFSET_STALE) != 0) {
+            View view = mOpener.open();
+            detachCatalogs();
+            mView.close();
+            mView = view;
+        }
+        IOException error = null;
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                Thread.yield();
+            }
+            long sequence = mView.getLong(OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+            long generation = mView.getLong(OFFSET_GENERATION);
+            if (mCatalog != null && generation == mGeneration) {
+                return mCatalog;
+            }
+            int offset = mView.getInt(OFFSET_DATA);
+            int length = mView.getInt(OFFSET_LENGTH);
+            long checksum = mView.getLong(OFFSET_CHECKSUM);
+            ByteBuffer index;
+            try {
+                if (offset < HEADER_SIZE || length < ThemeCatalogCodec.getIndexLength(0) ||
+                        (long)offset + length > mView.length()) {
+                    throw new ThemeCatalogCodec.MalformedCatalogException(
+                            "Bad catalog bounds " + offset + "+" + length);
+                }
+                byte[] head = new byte[ThemeCatalogCodec.getIndexLength(0)];
+                mView.read(offset, head);
+                int count = ThemeCatalogCodec.readRowCount(ByteBuffer.wrap(head), 0, length);
+                byte[] copy = new byte[ThemeCatalogCodec.getIndexLength(count)];
+                mView.read(offset, copy);
+                if (mView.getLong(OFFSET_SEQUENCE) != sequence ||
+                        checksum(generation, offset, copy, copy.length) != checksum) {
+                    /* Published over while copying, or writes not yet visible. */
+                    continue;
+                }
+                index = ByteBuffer.wrap(copy);
+            } catch (ThemeCatalogCodec.MalformedCatalogException e) {
+                /* Possibly a header whose writes are not yet visible. */
+                error = e;
+                continue;
+            }
+            int count = ThemeCatalogCodec.readRowCount(index, 0);
+            ThemeCatalog catalog = new ThemeCatalog(count,
+                    ThemeCatalogCodec.readContentHash(index, 0),
+                    new ViewRowLoader(mView, offset, length, index));
+            for (Iterator<WeakReference<ThemeCatalog>> i = mLazyCatalogs.iterator();
+                    i.hasNext();) {
+                if (i.next().get() == null) {
+                    i.remove();
+                }
+            }
+            mLazyCatalogs.add(new WeakReference<ThemeCatalog>(catalog));
+            mCatalog = catalog;
+            mGeneration = generation;
+            return catalog;
+        }
+        if (error != null) {
+            throw error;
+        }
+        throw new IOException("Shared catalog is being rewritten continuously");
+    }
+
+    /**
+     * Releases the shared region. Catalogs already returned remain valid;
+     * any rows they have not yet decoded are decoded now.
+     */
+    public void close() {
+        ThemesCacheGovernor.getInstance().unregister(mCatalogCache);
+        synchronized (this) {
+            detachCatalogs();
+            mView.close();
+            mCatalog = null;
+        }
+    }
+
+    /**
+     * Decodes the remaining rows of every catalog still reading from mView,
+     * so that it may be closed.
+     */
+    private void detachCatalogs() {
+        for (Iterator<WeakReference<ThemeCatalog>> i = mLazyCatalogs.iterator(); i.hasNext();) {
+            ThemeCatalog catalog = i.next().get();
+            if (catalog != null) {
+                try {
+                    catalog.loadAll();
+                } catch (IllegalStateException e) {
+                    /* The catalog's unread rows are lost; reads of them fail. */
+                }
+            }
+            i.remove();
+        }
+    }
+
+    /**
+     * @return the checksum stored in the header, which covers the
+     *         generation and offset so that a header read from one publish
+     *         cannot be paired with the catalog of another.
+     */
+    private static long checksum(long generation, int offset, byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putLong(generation).putInt(offset).array());
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Decodes rows of one published catalog out of a view on demand.
+     */
+    private static class ViewRowLoader implements ThemeCatalog.RowLoader {
+        private final View mView;
+        private final int mOffset;
+        private final int mLength;
+        private final ByteBuffer mIndex;
+
+        ViewRowLoader(View view, int offset, int length, ByteBuffer index) {
+            mView = view;
+            mOffset = offset;
+            mLength = length;
+            mIndex = index;
+        }
+
+        public ThemeSnapshot load(int position) {
+            int rowOffset = ThemeCatalogCodec.getRowOffset(mIndex, 0, position);
+            int rowLength = ThemeCatalogCodec.getRowLength(mIndex, 0, position);
+            int checksum = ThemeCatalogCodec.getRowChecksum(mIndex, 0, position);
+            if (rowOffset < 0 || rowLength < 0 || (long)rowOffset + rowLength > mLength) {
+                throw new IllegalStateException("Bad bounds for row " + position);
+            }
+            byte[] row = new byte[rowLength];
+            IOException error = null;
+            for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    /* The row's writes may not be visible yet. */
+                    Thread.yield();
+                }
+                try {
+                    mView.read(mOffset + rowOffset, row);
+                    return ThemeCatalogCodec.decodeRow(row, checksum, position);
+                } catch (ThemeCatalogCodec.MalformedCatalogException e) {
+                    error = e;
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to read row " + position, e);
+                }
+            }
+            throw new IllegalStateException("Unable to read row " + position, error);
+        }
+    }
+
+    /**
+     * Writes catalogs to shared memory. Used by the theme provider, which
+     * serves {@link #openReadOnly()} for {@link Themes#SHARED_CATALOG_URI}.
+     * Publishing is single-writer; calls are serialized.
+     */
+    public static final class Publisher {
+        private final Region.Factory mFactory;
+        private Region mRegion;
+        private int mTail;
+        private long mSequence;
+        private long mGeneration;
+
+        private Publisher(Region.Factory factory) {
+            mFactory = factory;
+        }
+
+        /**
+         * @param name a name for the ashmem region, for debugging.
+         * @return a publisher backed by ashmem.
+         */
+        public static Publisher createAshmem(final String name) {
+            return new Publisher(new Region.Factory() {
+                public Region create(int length) throws IOException {
+                    return new AshmemRegion(new MemoryFile(name, length));
+                }
+            });
+        }
+
+        /**
+         * @param file the file to publish to. Readers open it with
+         *            {@link SharedThemeCatalog#open(File)}.
+         * @return a publisher backed by a memory mapped file, for use where
+         *         ashmem is unavailable.
+         */
+        public static Publisher createMapped(final File file) {
+            return new Publisher(new Region.Factory() {
+                public Region create(int length) throws IOException {
+                    return MappedRegion.create(file, length);
+                }
+            });
+        }
+
+        /**
+         * Publishes catalog, bumping the generation seen by all readers.
+         * The catalog is appended to the current region, or to a new one
+         * with room for several more if it does not fit.
+         */
+        public synchronized void publish(ThemeCatalog catalog) throws IOException {
+            byte[] data = ThemeCatalogCodec.encode(catalog);
+            int indexLength = ThemeCatalogCodec.getIndexLength(catalog.size());
+            /* Keep each catalog 8-byte aligned. */
+            int offset = (mTail + 7) & ~7;
+            if (mRegion == null || (long)offset + data.length > mRegion.length()) {
+                Region region = mFactory.create(HEADER_SIZE + data.length * REGION_CAPACITY);
+                Region old = mRegion;
+                mRegion = region;
+                writeHeaderAndData(data, indexLength, HEADER_SIZE);
+                if (old != null) {
+                    old.writeInt(OFFSET_STALE, 1);
+                    old.close();
+                }
+            } else {
+                writeHeaderAndData(data, indexLength, offset);
+            }
+        }
+
+        private void writeHeaderAndData(byte[] data, int indexLength, int offset)
+                throws IOException {
+            long generation = mGeneration + 1;
+            /* Past the end of the published catalog, so no reader is looking. */
+            mRegion.write(data, offset);
+            mRegion.writeLong(OFFSET_SEQUENCE, ++mSequence);
+            mRegion.writeInt(OFFSET_DATA, offset);
+            mRegion.writeInt(OFFSET_LENGTH, data.length);
+            mRegion.writeLong(OFFSET_CHECKSUM, checksum(generation, offset, data, indexLength));
+            mRegion.writeInt(OFFSET_STALE, 0);
+            mRegion.writeLong(OFFSET_GENERATION, generation);
+            mRegion.writeLong(OFFSET_SEQUENCE, ++mSequence);
+            mGeneration = generation;
+            mTail = offset + data.length;
+        }
+
+        /**
+         * @return the generation of the last publish.
+         */
+        public synchronized long getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * @return a read-only descriptor of the current region with its
+         *         length declared, suitable for returning from
+         *         ContentProvider.openAssetFile.
+         * @throws IOException if nothing has been published yet.
+         */
+        public synchronized AssetFileDescriptor openReadOnly() throws IOException {
+            if (mRegion == null) {
+                throw new IOException("Nothing published");
+            }
+            return new AssetFileDescriptor(mRegion.openReadOnly(), 0, mRegion.length());
+        }
+
+        /**
+         * Releases the current region. Mapped readers keep their mapping.
+         */
+        public synchronized void close() {
+            if (mRegion != null) {
+                mRegion.close();
+                mRegion = null;
+            }
+        }
+    }
+
+    /**
+     * A reader's view of a published region.
+     */
+    private static abstract class View {
+        private final byte[] mInt = new byte[4];
+        private final byte[] mLong = new byte[8];
+
+        abstract int length();
+
+        abstract void read(int offset, byte[] dst) throws IOException;
+
+        abstract void close();
+
+        int getInt(int offset) throws IOException {
+            read(offset, mInt);
+            return ByteBuffer.wrap(mInt).getInt();
+        }
+
+        long getLong(int offset) throws IOException {
+            read(offset, mLong);
+            return ByteBuffer.wrap(mLong).getLong();
+        }
+    }
+
+    /**
+     * Maps an ashmem region through MemoryFile, which maps the length it is
+     * given rather than the size the descriptor reports.
+     */
+    private static class AshmemView extends View {
+        private final AssetFileDescriptor mDescriptor;
+        private final MemoryFile mMemoryFile;
+        private final int mOffset;
+        private final int mLength;
+
+        AshmemView(AssetFileDescriptor afd) throws IOException {
+            long offset = afd.getStartOffset();
+            long length = afd.getLength();
+            if (length < HEADER_SIZE || offset + length > Integer.MAX_VALUE) {
+                throw new IOException("Shared catalog length unknown or invalid: " + length);
+            }
+            mDescriptor = afd;
+            mOffset = (int)offset;
+            mLength = (int)length;
+            mMemoryFile = new MemoryFile(afd.getFileDescriptor(), mOffset + mLength, "r");
+        }
+
+        @Override
+        int length() {
+            return mLength;
+        }
+
+        @Override
+        void read(int offset, byte[] dst) throws IOException {
+            mMemoryFile.readBytes(dst, mOffset + offset, 0, dst.length);
+        }
+
+        @Override
+        void close() {
+            /*
+             * MemoryFile unmaps and closes the descriptor it shares with
+             * mDescriptor, and marks it invalid, so closing mDescriptor
+             * afterwards cannot close a reused descriptor.
+             */
+            mMemoryFile.close();
+            try {
+                mDescriptor.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static class MappedView extends View {
+        private final ByteBuffer mBuffer;
+
+        MappedView(ByteBuffer buffer) throws IOException {
+            if (buffer.capacity() < HEADER_SIZE) {
+                throw new IOException("Shared catalog too small: " + buffer.capacity());
+            }
+            mBuffer = buffer;
+        }
+
+        @Override
+        int length() {
+            return mBuffer.capacity();
+        }
+
+        @Override
+        void read(int offset, byte[] dst) {
+            ByteBuffer src = mBuffer.duplicate();
+            src.position(offset);
+            src.get(dst);
+        }
+
+        @Override
+        void close() {
+            /* Unmapped when collected. */
+        }
+    }
+
+    private static abstract class Region {
+        interface Factory {
+            Region create(int length) throws IOException;
+        }
+
+        abstract int length();
+
+        abstract void write(byte[] data, int offset) throws IOException;
+
+        abstract ParcelFileDescriptor openReadOnly() throws IOException;
+
+        abstract void close();
+
+        void writeInt(int offset, int value) throws IOException {
+            write(ByteBuffer.allocate(4).putInt(value).array(), offset);
+        }
+
+        void writeLong(int offset, long value) throws IOException {
+            write(ByteBuffer.allocate(8).putLong(value).array(), offset);
+        }
+    }
+
+    private static class AshmemRegion extends Region {
+        private final MemoryFile mMemoryFile;
+
+        AshmemRegion(MemoryFile memoryFile) {
+            mMemoryFile = memoryFile;
+        }
+
+        @Override
+        int length() {
+            return mMemoryFile.length();
+        }
+
+        @Override
+        void write(byte[] data, int offset) throws IOException {
+            mMemoryFile.writeBytes(data, 0, offset, data.length);
+        }
+
+        @Override
+        ParcelFileDescriptor openReadOnly() throws IOException {
+            return mMemoryFile.getParcelFileDescriptor();
+        }
+
+        @Override
+        void close() {
+            mMemoryFile.close();
+        }
+    }
+
+    private static class MappedRegion extends Region {
+        private final File mFile;
+        private final MappedByteBuffer mBuffer;
+
+        private MappedRegion(File file, MappedByteBuffer buffer) {
+            mFile = file;
+            mBuffer = buffer;
+        }
+
+        /**
+         * Creates a region in a new file renamed over file, so that readers
+         * of a previous region keep a valid mapping until they see it is
+         * stale and reopen.
+         */
+        static MappedRegion create(File file, int length) throws IOException {
+            File tmp = new File(file.getPath() + ".new");
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            MappedByteBuffer buffer;
+            try {
+                raf.setLength(length);
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } finally {
+                raf.close();
+            }
+            /* Mark as being written until the first publish completes. */
+            buffer.putLong(OFFSET_SEQUENCE, 1);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Unable to rename " + tmp);
+            }
+            return new MappedRegion(file, buffer);
+        }
+
+        @Override
+        int length() {
+            return mBuffer.capacity();
+        }
+
+        @Override
+        void write(byte[] data, int offset) {
+            ByteBuffer dst = mBuffer.duplicate();
+            dst.position(offset);
+            dst.put(data);
+        }
+
+        @Override
+        ParcelFileDescriptor openReadOnly() throws IOException {
+            return ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        @Override
+        void close() {
+        }
+    }
+}
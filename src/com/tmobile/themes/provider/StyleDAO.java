@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+import com.tmobile.themes.provider.annotation.Column;
+import com.tmobile.themes.provider.annotation.DAO;
+
+import android.net.Uri;
+
+/**
+ * Columns of a theme row read by {@link StyleItem}. The column binding of
+ * {@link AbstractStyleItem} and the {@link StyleSnapshot} class are
+ * generated from this interface by the com.tmobile.themes.daogen annotation
+ * processor. The snapshot's name fallback lives in
+ * {@link AbstractStyleSnapshot}.
+ */
+@DAO(className = "AbstractStyleItem", snapshotClassName = "StyleSnapshot",
+        snapshotSuperclass = "AbstractStyleSnapshot")
+interface StyleDAO {
+    @Column(value = ThemeColumns._ID, defaultValue = "-1")
+    long getId();
+
+    @Column(ThemeColumns.THEME_ID)
+    String getThemeId();
+
+    @Column(ThemeColumns.THEME_PACKAGE)
+    String getPackageName();
+
+    @Column(ThemeColumns.NAME)
+    String getThemeName();
+
+    @Column(ThemeColumns.STYLE_NAME)
+    String getStyleName();
+
+    @Column(ThemeColumns.THUMBNAIL_URI)
+    Uri getThumbnailUri();
+
+    @Column(ThemeColumns.IS_APPLIED)
+    boolean isApplied();
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Simple data access object representing a theme's style, that is the theme
+ * without its wallpaper and ringtones. Styles are rows of the theme
+ * provider, so a StyleItem may wrap any cursor returned from the Themes
+ * class APIs, including one already backing a {@link ThemeItem}.
+ * <p>
+ * Apply a style with {@link Themes#changeStyle(Context, Uri)} and
+ * {@link #getUri}.
+ * <p>
+ * The column accessors are generated from {@link StyleDAO}.
+ */
+public class StyleItem extends AbstractStyleItem {
+    private static final AbstractDAOItem.Creator<StyleItem> CREATOR =
+            new AbstractDAOItem.Creator<StyleItem>() {
+        @Override
+        public StyleItem init(Cursor c) {
+            return new StyleItem(c);
+        }
+    };
+
+    /**
+     * @see AbstractDAOItem.Creator#newInstance(Context, Uri)
+     */
+    public static StyleItem getInstance(Context context, Uri uri) {
+        return CREATOR.newInstance(context, uri);
+    }
+
+    /**
+     * @see AbstractDAOItem.Creator#newInstance(Cursor)
+     */
+    public static StyleItem getInstance(Cursor c) {
+        return CREATOR.newInstance(c);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StyleItem(Cursor c) {
+        super(c);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @return the theme Uri, or null if the projection does not include
+     *         both {@link ThemeColumns#THEME_PACKAGE} and
+     *         {@link ThemeColumns#THEME_ID}.
+     */
+    @Override
+    public Uri getUri(Context context) {
+        if (mColumnPackageName < 0 || mColumnThemeId < 0) {
+            return null;
+        }
+        return Themes.getThemeUri(context, getPackageName(), getThemeId());
+    }
+
+    /**
+     * @return the style name, or the theme name if the theme does not
+     *         specify a style name.
+     */
+    public String getName() {
+        return AbstractStyleSnapshot.getName(getStyleName(), getThemeName());
+    }
+
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+
+        b.append('{');
+        b.append("pkg=").append(getPackageName()).append("; ");
+        b.append("themeId=").append(getThemeId()).append("; ");
+        b.append("name=").append(getName());
+        b.append('}');
+
+        return b.toString();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import android.database.Cursor;
+
+/**
+ * Immutable, cursor-free list of {@link ThemeSnapshot} rows. Safe to share
+ * between threads.
+ * <p>
+ * A catalog read from a shared region decodes each row the first time it
+ * is requested rather than all at once, so holding a large catalog costs
+ * only the rows actually displayed.
+ * @author T-Mobile USA
+ */
+public final class ThemeCatalog {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /* Rough memory held by an object header and its references. */
+    private static final int OBJECT_OVERHEAD_BYTES = 32;
+
+    /**
+     * Supplies the rows of a lazily decoded catalog.
+     */
+    interface RowLoader {
+        /**
+         * @return the row at position; never null.
+         * @throws IllegalStateException if the row can no longer be read.
+         */
+        ThemeSnapshot load(int position);
+    }
+
+    private final ThemeSnapshot[] mThemes;
+    private final long mContentHash;
+
+    /* Null once every row has been loaded. */
+    private volatile RowLoader mLoader;
+
+    /* Computed on first use; racy but idempotent. */
+    private long mByteCount = -1;
+
+    ThemeCatalog(ThemeSnapshot[] themes) {
+        this(themes, computeContentHash(themes));
+    }
+
+    ThemeCatalog(ThemeSnapshot[] themes, long contentHash) {
+        mThemes = themes;
+        mContentHash = contentHash;
+    }
+
+    /**
+     * Creates a catalog of count rows which are fetched from loader as they
+     * are first requested.
+     */
+    ThemeCatalog(int count, long contentHash, RowLoader loader) {
+        mThemes = new ThemeSnapshot[count];
+        mContentHash = contentHash;
+        mLoader = loader;
+    }
+
+    /**
+     * Copies every row of the cursor into a new catalog. The cursor is left
+     * open and its position is undefined afterwards.
+     * @param c a cursor returned from one of the {@link Themes} APIs.
+     * @return the catalog, which is empty if c is null.
+     */
+    public static ThemeCatalog fromCursor(Cursor c) {
+        if (c == null) {
+            return new ThemeCatalog(new ThemeSnapshot[0]);
+        }
+        ThemeSnapshot[] themes = new ThemeSnapshot[c.getCount()];
+        ThemeItem item = new ThemeItem(c);
+        for (int i = 0; i < themes.length && c.moveToPosition(i); i++) {
+            themes[i] = item.toSnapshot();
+        }
+        return new ThemeCatalog(themes);
+    }
+
+    /**
+     * @return the number of themes in the catalog.
+     */
+    public int size() {
+        return mThemes.length;
+    }
+
+    /**
+     * @param position the position of the theme.
+     * @return the theme at the given position.
+     */
+    public ThemeSnapshot get(int position) {
+        ThemeSnapshot theme = mThemes[position];
+        if (theme == null) {
+            synchronized (mThemes) {
+                theme = mThemes[position];
+                RowLoader loader = mLoader;
+                if (theme == null && loader != null) {
+                    theme = loader.load(position);
+                    mThemes[position] = theme;
+                }
+            }
+        }
+        return theme;
+    }
+
+    /**
+     * Loads every row not yet decoded, after which the catalog no longer
+     * depends on its source.
+     */
+    void loadAll() {
+        synchronized (mThemes) {
+            RowLoader loader = mLoader;
+            if (loader == null) {
+                return;
+            }
+            for (int i = 0; i < mThemes.length; i++) {
+                if (mThemes[i] == null) {
+                    mThemes[i] = loader.load(i);
+                }
+            }
+            mLoader = null;
+        }
+    }
+
+    /**
+     * @param packageName the package of the theme.
+     * @param themeId the id of the theme.
+     * @return the position of the theme or -1 if it is not in the catalog.
+     */
+    public int findTheme(String packageName, String themeId) {
+        for (int i = 0; i < mThemes.length; i++) {
+            ThemeSnapshot theme = get(i);
+            if (equalsNullSafe(packageName, theme.getPackageName()) &&
+                    equalsNullSafe(themeId, theme.getThemeId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the applied theme or -1 if none is applied.
+     */
+    public int findAppliedTheme() {
+        for (int i = 0; i < mThemes.length; i++) {
+            if (get(i).isApplied()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return an estimate of the memory held by the catalog and the rows
+     *         decoded so far.
+     */
+    public long getByteCount() {
+        long bytes = mByteCount;
+        if (bytes < 0) {
+            boolean complete = (mLoader == null);
+            bytes = OBJECT_OVERHEAD_BYTES + mThemes.length * 4L;
+            for (ThemeSnapshot theme : mThemes) {
+                if (theme == null) {
+                    continue;
+                }
+                bytes += OBJECT_OVERHEAD_BYTES * 2;
+                for (int i = 0; i < ThemeSnapshot.STRING_COUNT; i++) {
+                    String s = theme.getString(i);
+                    if (s != null) {
+                        bytes += OBJECT_OVERHEAD_BYTES + s.length() * 2;
+                    }
+                }
+            }
+            if (complete) {
+                mByteCount = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * A hash over the content of every row. Two catalogs with the same hash
+     * may be assumed to hold the same themes in the same order.
+     */
+    public long getContentHash() {
+        return mContentHash;
+    }
+
+    private static boolean equalsNullSafe(String a, String b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    private static long computeContentHash(ThemeSnapshot[] themes) {
+        long hash = FNV_OFFSET_BASIS;
+        for (ThemeSnapshot theme : themes) {
+            hash = hashLong(hash, theme.getId());
+            hash = hashLong(hash, theme.getFlags());
+            for (int i = 0; i < ThemeSnapshot.STRING_COUNT; i++) {
+                String value = theme.getString(i);
+                if (value == null) {
+                    hash = hashLong(hash, -1);
+                } else {
+                    int n = value.length();
+                    hash = hashLong(hash, n);
+                    for (int j = 0; j < n; j++) {
+                        hash = (hash ^ value.charAt(j)) * FNV_PRIME;
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
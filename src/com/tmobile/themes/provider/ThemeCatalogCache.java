@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persists the last loaded theme catalog so that a theme picker can render
+ * immediately on cold start, before the theme provider has answered.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      ThemeCatalogCache.load(context, new ThemeCatalogCache.Callback() {
+ *          public void onCatalogLoaded(ThemeCatalog catalog, boolean fresh) {
+ *              // Render catalog; called once with the persisted snapshot if
+ *              // one exists and again if the provider's catalog differs.
+ *          }
+ *      });
+ * </pre>
+ * @author T-Mobile USA
+ */
+public class ThemeCatalogCache {
+    private static final String TAG = "ThemeCatalogCache";
+
+    private static final String FILE_NAME = "theme_catalog.bin";
+
+    private ThemeCatalogCache() {}
+
+    /**
+     * Receives catalogs from {@link ThemeCatalogCache#load}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread.
+         * @param catalog the catalog to display.
+         * @param fresh true if the catalog was just read from the provider;
+         *            false if it is the persisted snapshot.
+         */
+        public void onCatalogLoaded(ThemeCatalog catalog, boolean fresh);
+    }
+
+    /**
+     * Delivers the persisted catalog synchronously, if there is one, then
+     * queries the provider in the background and delivers the result only if
+     * it differs from the snapshot. Must be called on the main thread.
+     * @param context the context of the caller.
+     * @param callback receives the catalog(s).
+     * @return the task reconciling against the provider, which may be
+     *         cancelled if the caller goes away.
+     */
+    public static AsyncTask<?, ?, ?> load(Context context, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        final ThemeCatalog persisted = readSnapshot(appContext);
+        if (persisted != null) {
+            callback.onCatalogLoaded(persisted, false);
+        }
+        return new AsyncTask<Void, Void, ThemeCatalog>() {
+            @Override
+            protected ThemeCatalog doInBackground(Void... params) {
+                return refresh(appContext, persisted);
+            }
+
+            @Override
+            protected void onPostExecute(ThemeCatalog result) {
+                if (result != null) {
+                    callback.onCatalogLoaded(result, true);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Reads the persisted catalog, if any. May be called on the main thread;
+     * the file is memory mapped and decoded without any provider access.
+     * @param context the context of the caller.
+     * @return the persisted catalog or null if there is none or it is
+     *         unreadable.
+     */
+    public static ThemeCatalog readSnapshot(Context context) {
+        File file = getSnapshotFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        long start = SystemClock.uptimeMillis();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ThemeCatalog catalog = ThemeCatalogCodec.decode(buf);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Read " + catalog.size() + " themes from snapshot in " +
+                        (SystemClock.uptimeMillis() - start) + "ms");
+            }
+            return catalog;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable catalog snapshot", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Queries the provider and persists the result if it differs from
+     * previous. Must not be called on the main thread.
+     * @param context the context of the caller.
+     * @param previous the catalog currently displayed, or null.
+     * @return the fresh catalog, or null if it is identical to previous or
+     *         the provider could not be queried.
+     */
+    public static ThemeCatalog refresh(Context context, ThemeCatalog previous) {
+        long start = SystemClock.uptimeMillis();
+        Cursor c = Themes.listThemes(context, ThemeItem.PROJECTION_DETAIL, ThemeColumns.NAME);
+        if (c == null) {
+            return null;
+        }
+        ThemeCatalog catalog;
+        try {
+            catalog = ThemeCatalog.fromCursor(c);
+        } finally {
+            c.close();
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Queried " + catalog.size() + " themes from provider in " +
+                    (SystemClock.uptimeMillis() - start) + "ms");
+        }
+        if (previous != null && previous.getContentHash() == catalog.getContentHash()) {
+            return null;
+        }
+        writeSnapshot(context, catalog);
+        return catalog;
+    }
+
+    /**
+     * Deletes the persisted catalog.
+     */
+    public static void clear(Context context) {
+        getSnapshotFile(context).delete();
+    }
+
+    private static void writeSnapshot(Context context, ThemeCatalog catalog) {
+        File file = getSnapshotFile(context);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(ThemeCatalogCodec.encode(catalog));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to persist catalog snapshot", e);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static File getSnapshotFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
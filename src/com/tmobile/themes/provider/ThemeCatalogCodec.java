@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of a {@link ThemeCatalog}. The layout is designed
+ * to be read directly out of a memory mapped region, with any single row
+ * decodable without touching the others:
+ *
+ * <pre>
+ *   int   magic
+ *   int   format version
+ *   long  content hash
+ *   int   row count
+ *   row table: per row an int offset, relative to the start of the
+ *         catalog, an int length and an int CRC32 of the row's bytes
+ *   rows: long id, int flags, int string count,
+ *         then per string an int byte length (-1 for null) and UTF-8 bytes
+ * </pre>
+ *
+ * All values are big-endian.
+ */
+final class ThemeCatalogCodec {
+    static final int MAGIC = 0x544d5443; /* "TMTC" */
+    static final int FORMAT_VERSION = 2;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_HASH = 8;
+    private static final int OFFSET_COUNT = 16;
+    private static final int OFFSET_ROW_TABLE = 20;
+    private static final int ROW_ENTRY_SIZE = 12;
+
+    private ThemeCatalogCodec() {}
+
+    /**
+     * Thrown when a buffer does not hold a catalog this codec understands.
+     */
+    static class MalformedCatalogException extends IOException {
+        public MalformedCatalogException(String message) {
+            super(message);
+        }
+    }
+
+    static byte[] encode(ThemeCatalog catalog) {
+        int count = catalog.size();
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(count * 256);
+        DataOutputStream rows = new DataOutputStream(rowBytes);
+        int[] offsets = new int[count];
+        int rowBase = getIndexLength(count);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                offsets[i] = rowBase + rows.size();
+                ThemeSnapshot theme = catalog.get(i);
+                rows.writeLong(theme.getId());
+                rows.writeInt(theme.getFlags());
+                rows.writeInt(ThemeSnapshot.STRING_COUNT);
+                for (int j = 0; j < ThemeSnapshot.STRING_COUNT; j++) {
+                    String value = theme.getString(j);
+                    if (value == null) {
+                        rows.writeInt(-1);
+                    } else {
+                        byte[] utf8 = value.getBytes("UTF-8");
+                        rows.writeInt(utf8.length);
+                        rows.write(utf8);
+                    }
+                }
+            }
+            rows.flush();
+            byte[] rowData = rowBytes.toByteArray();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(rowBase + rowBytes.size());
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeLong(catalog.getContentHash());
+            header.writeInt(count);
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; i++) {
+                int start = offsets[i] - rowBase;
+                int end = (i + 1 < count ? offsets[i + 1] - rowBase : rowData.length);
+                crc.reset();
+                crc.update(rowData, start, end - start);
+                header.writeInt(offsets[i]);
+                header.writeInt(end - start);
+                header.writeInt((int)crc.getValue());
+            }
+            header.flush();
+            out.write(rowData);
+            return out.toByteArray();
+        } catch (IOException e) {
+            /* Not possible with in-memory streams. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes every row of the catalog starting at buf's position.
+     */
+    static ThemeCatalog decode(ByteBuffer buf) throws MalformedCatalogException {
+        int base = buf.position();
+        int count = readRowCount(buf, base);
+        ThemeSnapshot[] themes = new ThemeSnapshot[count];
+        for (int i = 0; i < count; i++) {
+            themes[i] = decodeRow(buf, base, i);
+        }
+        return new ThemeCatalog(themes, buf.getLong(base + OFFSET_HASH));
+    }
+
+    /**
+     * Validates the header of the catalog starting at base.
+     * @return the number of rows in the catalog.
+     */
+    static int readRowCount(ByteBuffer buf, int base) throws MalformedCatalogException {
+        return readRowCount(buf, base, buf.limit() - base);
+    }
+
+    /**
+     * Validates the header of a catalog of length bytes starting at base,
+     * of which buf need only hold the first {@link #getIndexLength
+     * getIndexLength(0)}.
+     * @return the number of rows in the catalog.
+     */
+    static int readRowCount(ByteBuffer buf, int base, int length)
+            throws MalformedCatalogException {
+        try {
+            if (buf.getInt(base + OFFSET_MAGIC) != MAGIC) {
+                throw new MalformedCatalogException("Bad magic");
+            }
+            int version = buf.getInt(base + OFFSET_VERSION);
+            if (version != FORMAT_VERSION) {
+                throw new MalformedCatalogException("Unsupported version " + version);
+            }
+            int count = buf.getInt(base + OFFSET_COUNT);
+            if (count < 0 || OFFSET_ROW_TABLE + (long)count * ROW_ENTRY_SIZE > length) {
+                throw new MalformedCatalogException("Bad row count " + count);
+            }
+            return count;
+        } catch (IndexOutOfBoundsException e) {
+            throw new MalformedCatalogException("Truncated header");
+        }
+    }
+
+    /**
+     * @return the number of bytes from the start of a catalog of count rows
+     *         to its first row: the header and the row table.
+     */
+    static int getIndexLength(int count) {
+        return OFFSET_ROW_TABLE + count * ROW_ENTRY_SIZE;
+    }
+
+    /**
+     * @return the content hash recorded in the catalog starting at base.
+     */
+    static long readContentHash(ByteBuffer buf, int base) {
+        return buf.getLong(base + OFFSET_HASH);
+    }
+
+    /**
+     * Decodes a single row without disturbing buf's position, so a shared
+     * buffer may be read from several threads.
+     * @throws MalformedCatalogException if the row's bytes do not match
+     *         the checksum in the row table.
+     */
+    static ThemeSnapshot decodeRow(ByteBuffer buf, int base, int index)
+            throws MalformedCatalogException {
+        byte[] row;
+        try {
+            ByteBuffer src = buf.duplicate();
+            src.position(base + getRowOffset(buf, base, index));
+            row = new byte[getRowLength(buf, base, index)];
+            src.get(row);
+        } catch (BufferUnderflowException e) {
+            throw new MalformedCatalogException("Truncated row " + index);
+        } catch (IllegalArgumentException e) {
+            throw new MalformedCatalogException("Bad row offset " + index);
+        } catch (IndexOutOfBoundsException e) {
+            throw new MalformedCatalogException("Bad row offset " + index);
+        } catch (NegativeArraySizeException e) {
+            throw new MalformedCatalogException("Bad row length " + index);
+        }
+        return decodeRow(row, getRowChecksum(buf, base, index), index);
+    }
+
+    /*
+     * Row table accessors. buf need only hold the catalog's index (see
+     * getIndexLength), so a reader may copy the index and fetch rows
+     * separately.
+     */
+
+    static int getRowOffset(ByteBuffer buf, int base, int row) {
+        return buf.getInt(base + OFFSET_ROW_TABLE + row * ROW_ENTRY_SIZE);
+    }
+
+    static int getRowLength(ByteBuffer buf, int base, int row) {
+        return buf.getInt(base + OFFSET_ROW_TABLE + row * ROW_ENTRY_SIZE + 4);
+    }
+
+    static int getRowChecksum(ByteBuffer buf, int base, int row) {
+        return buf.getInt(base + OFFSET_ROW_TABLE + row * ROW_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Decodes the bytes of a single row after verifying them against the
+     * checksum from the row table.
+     */
+    static ThemeSnapshot decodeRow(byte[] bytes, int checksum, int index)
+            throws MalformedCatalogException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int)crc.getValue() != checksum) {
+            throw new MalformedCatalogException("Bad checksum for row " + index);
+        }
+        ByteBuffer row = ByteBuffer.wrap(bytes);
+        try {
+            long id = row.getLong();
+            int flags = row.getInt();
+            int count = row.getInt();
+            String[] strings = new String[ThemeSnapshot.STRING_COUNT];
+            for (int i = 0; i < count; i++) {
+                int length = row.getInt();
+                String value = null;
+                if (length > row.remaining()) {
+                    throw new MalformedCatalogException("Truncated row " + index);
+                } else if (length >= 0) {
+                    value = new String(bytes, row.position(), length, "UTF-8");
+                    row.position(row.position() + length);
+                }
+                if (i < ThemeSnapshot.STRING_COUNT) {
+                    strings[i] = value;
+                }
+            }
+            return new ThemeSnapshot(id, flags, strings);
+        } catch (BufferUnderflowException e) {
+            throw new MalformedCatalogException("Truncated row " + index);
+        } catch (UnsupportedEncodingException e) {
+            /* UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        }
+    }
+}
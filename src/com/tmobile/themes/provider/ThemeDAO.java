@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+import com.tmobile.themes.provider.annotation.Column;
+import com.tmobile.themes.provider.annotation.DAO;
+
+import android.net.Uri;
+
+/**
+ * Columns of a theme row read by {@link ThemeItem}. The column binding of
+ * {@link AbstractThemeItem} is generated from this interface by the
+ * com.tmobile.themes.daogen annotation processor. No snapshot class is
+ * generated; {@link ThemeItem#toSnapshot()} builds the parcelable
+ * {@link ThemeSnapshot} instead.
+ */
+@DAO(className = "AbstractThemeItem")
+interface ThemeDAO {
+    /**
+     * @return the id for this item's row in the provider, or -1 if the
+     *         projection does not include it.
+     */
+    @Column(value = ThemeColumns._ID, defaultValue = "-1")
+    long getId();
+
+    /**
+     * @return the String Theme Id
+     */
+    @Column(ThemeColumns.THEME_ID)
+    String getThemeId();
+
+    /**
+     * @return this theme's package
+     */
+    @Column(ThemeColumns.THEME_PACKAGE)
+    String getPackageName();
+
+    /**
+     * @return the Theme name
+     */
+    @Column(ThemeColumns.NAME)
+    String getName();
+
+    /**
+     * Access the name to be displayed for the theme when packages sans
+     * wallpaper and ringtone. For different parts of the UI.
+     * @return the style name
+     */
+    @Column(ThemeColumns.STYLE_NAME)
+    String getStyleName();
+
+    /**
+     * @return the Theme author
+     */
+    @Column(ThemeColumns.AUTHOR)
+    String getAuthor();
+
+    /**
+     * @return true if this theme contains DRM content
+     */
+    @Column(ThemeColumns.IS_DRM)
+    boolean isDRMProtected();
+
+    /**
+     * Requests a unique identifier for a wallpaper. Useful to distinguish
+     * different wallpaper items contained in a single theme package. Though
+     * the result appears to be a filename, it should never be treated in
+     * this way. It is merely useful as a unique key to feed a BitmapStore
+     * surrounding this theme package. To share decoded wallpapers across
+     * packages, use {@link com.tmobile.themes.graphics.WallpaperStore}.
+     * @return the wallpaper identifier
+     */
+    @Column(ThemeColumns.WALLPAPER_NAME)
+    String getWallpaperIdentifier();
+
+    /**
+     * @return the wallpaper uri, or null if this theme doesn't specify one.
+     */
+    @Column(ThemeColumns.WALLPAPER_URI)
+    Uri getWallpaperUri();
+
+    /**
+     * @return the lockscreen wallpaper uri, or null if this theme doesn't
+     *         specify one.
+     */
+    @Column(ThemeColumns.LOCK_WALLPAPER_URI)
+    Uri getLockWallpaperUri();
+
+    /**
+     * @return the name of the ringtone or null if this theme doesn't specify one.
+     */
+    @Column(ThemeColumns.RINGTONE_NAME)
+    String getRingtoneName();
+
+    /**
+     * @return the ringtone uri, or null if this theme doesn't specify one.
+     */
+    @Column(ThemeColumns.RINGTONE_URI)
+    Uri getRingtoneUri();
+
+    /**
+     * @return the name of the notification ringtone or null if this theme
+     *         doesn't specify one.
+     */
+    @Column(ThemeColumns.NOTIFICATION_RINGTONE_NAME)
+    String getNotificationRingtoneName();
+
+    /**
+     * @return the notification ringtone uri, or null if this theme doesn't
+     *         specify one.
+     */
+    @Column(ThemeColumns.NOTIFICATION_RINGTONE_URI)
+    Uri getNotificationRingtoneUri();
+
+    /**
+     * A theme may specify a thumbnail to represent a theme.
+     * @return the thumbnail uri, or null if this theme doesn't specify one.
+     */
+    @Column(ThemeColumns.THUMBNAIL_URI)
+    Uri getThumbnailUri();
+
+    /**
+     * @return the preview image uri without an orientation, or null if this
+     *         theme doesn't specify one.
+     */
+    @Column(ThemeColumns.PREVIEW_URI)
+    Uri getPreviewUri();
+
+    /**
+     * @return true if this theme is part of the system image, or if the
+     *         projection does not include {@link Themes.ThemeColumns#IS_SYSTEM}.
+     */
+    @Column(value = ThemeColumns.IS_SYSTEM, defaultValue = "true")
+    boolean isSystem();
+
+    /**
+     * @return true if this theme is currently applied
+     */
+    @Column(ThemeColumns.IS_APPLIED)
+    boolean isApplied();
+
+    /**
+     * @return true if this theme has assets compiled for the current host's
+     *         display density.
+     */
+    @Column(ThemeColumns.HAS_HOST_DENSITY)
+    boolean hasHostDensity();
+
+    /**
+     * @return true if this theme has assets compiled in the theme package scope
+     *         (0x0a as opposed to 0x7f).
+     */
+    @Column(ThemeColumns.HAS_THEME_PACKAGE_SCOPE)
+    boolean hasThemePackageScope();
+}
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.res.CustomTheme;
 import android.database.Cursor;
 import android.net.Uri;
+import android.text.TextUtils;
 
 /**
  * Simple data access object designed to wrap a cursor returned from any of the
@@ -39,28 +40,73 @@ import android.net.Uri;
  *          item.close();
  *      }
  * </pre>
+ *
+ * <h2>Projections</h2>
+ * <p>A ThemeItem may wrap a cursor built from any projection, such as
+ * {@link #PROJECTION_LIST}. Getters for columns absent from the projection
+ * return null, or false for the boolean accessors.</p>
+ *
+ * <p>The column accessors are generated from {@link ThemeDAO}.</p>
  */
-public class ThemeItem extends AbstractDAOItem {
-    private int mColumnId;
-    private int mColumnThemeId;
-    private int mColumnThemePackage;
-    private int mColumnName;
-    private int mColumnStyleName;
-    private int mColumnAuthor;
-    private int mColumnIsDRM;
-    private int mColumnWallpaperName;
-    private int mColumnWallpaperUri;
-    private int mColumnLockWallpaperUri;
-    private int mColumnRingtoneName;
-    private int mColumnRingtoneUri;
-    private int mColumnNotifRingtoneName;
-    private int mColumnNotifRingtoneUri;
-    private int mColumnThumbnailUri;
-    private int mColumnIsSystem;
-    private int mColumnIsApplied;
-    private int mColumnPreviewUri;
-    private int mColumnHasHostDensity;
-    private int mColumnHasThemePackageScope;
+public class ThemeItem extends AbstractThemeItem {
+    /**
+     * Minimal projection for displaying themes in a list or grid. Sufficient
+     * for {@link #getUri}, {@link #getName}, {@link #getStyleName},
+     * {@link #getAuthor}, {@link #getThumbnailUri} and {@link #isApplied}.
+     */
+    public static final String[] PROJECTION_LIST = new String[] {
+        ThemeColumns._ID,
+        ThemeColumns.THEME_PACKAGE,
+        ThemeColumns.THEME_ID,
+        ThemeColumns.NAME,
+        ThemeColumns.STYLE_NAME,
+        ThemeColumns.AUTHOR,
+        ThemeColumns.THUMBNAIL_URI,
+        ThemeColumns.IS_APPLIED,
+    };
+
+    /**
+     * Projection holding everything needed to validate and apply a theme.
+     */
+    public static final String[] PROJECTION_APPLY = new String[] {
+        ThemeColumns._ID,
+        ThemeColumns.THEME_PACKAGE,
+        ThemeColumns.THEME_ID,
+        ThemeColumns.IS_DRM,
+        ThemeColumns.WALLPAPER_URI,
+        ThemeColumns.LOCK_WALLPAPER_URI,
+        ThemeColumns.RINGTONE_URI,
+        ThemeColumns.NOTIFICATION_RINGTONE_URI,
+        ThemeColumns.HAS_HOST_DENSITY,
+        ThemeColumns.HAS_THEME_PACKAGE_SCOPE,
+    };
+
+    /**
+     * Projection holding every column read by ThemeItem. Suitable for detail
+     * screens.
+     */
+    public static final String[] PROJECTION_DETAIL = new String[] {
+        ThemeColumns._ID,
+        ThemeColumns.THEME_PACKAGE,
+        ThemeColumns.THEME_ID,
+        ThemeColumns.NAME,
+        ThemeColumns.STYLE_NAME,
+        ThemeColumns.AUTHOR,
+        ThemeColumns.IS_DRM,
+        ThemeColumns.WALLPAPER_NAME,
+        ThemeColumns.WALLPAPER_URI,
+        ThemeColumns.LOCK_WALLPAPER_URI,
+        ThemeColumns.RINGTONE_NAME,
+        ThemeColumns.RINGTONE_URI,
+        ThemeColumns.NOTIFICATION_RINGTONE_NAME,
+        ThemeColumns.NOTIFICATION_RINGTONE_URI,
+        ThemeColumns.THUMBNAIL_URI,
+        ThemeColumns.PREVIEW_URI,
+        ThemeColumns.IS_SYSTEM,
+        ThemeColumns.IS_APPLIED,
+        ThemeColumns.HAS_HOST_DENSITY,
+        ThemeColumns.HAS_THEME_PACKAGE_SCOPE,
+    };
 
     private static final AbstractDAOItem.Creator<ThemeItem> CREATOR =
             new AbstractDAOItem.Creator<ThemeItem>() {
@@ -89,97 +135,30 @@ public class ThemeItem extends AbstractDAOItem {
      */
     public ThemeItem(Cursor c) {
         super(c);
-        mColumnId = c.getColumnIndex(ThemeColumns._ID);
-        mColumnThemeId = c.getColumnIndex(ThemeColumns.THEME_ID);
-        mColumnThemePackage = c.getColumnIndex(ThemeColumns.THEME_PACKAGE);
-        mColumnName = c.getColumnIndex(ThemeColumns.NAME);
-        mColumnStyleName = c.getColumnIndex(ThemeColumns.STYLE_NAME);
-        mColumnAuthor = c.getColumnIndex(ThemeColumns.AUTHOR);
-        mColumnIsDRM = c.getColumnIndex(ThemeColumns.IS_DRM);
-        mColumnWallpaperName = c.getColumnIndex(ThemeColumns.WALLPAPER_NAME);
-        mColumnWallpaperUri = c.getColumnIndex(ThemeColumns.WALLPAPER_URI);
-        mColumnLockWallpaperUri = c.getColumnIndex(ThemeColumns.LOCK_WALLPAPER_URI);
-        mColumnRingtoneName = c.getColumnIndex(ThemeColumns.RINGTONE_NAME);
-        mColumnRingtoneUri = c.getColumnIndex(ThemeColumns.RINGTONE_URI);
-        mColumnNotifRingtoneName = c.getColumnIndex(ThemeColumns.NOTIFICATION_RINGTONE_NAME);
-        mColumnNotifRingtoneUri = c.getColumnIndex(ThemeColumns.NOTIFICATION_RINGTONE_URI);
-        mColumnThumbnailUri = c.getColumnIndex(ThemeColumns.THUMBNAIL_URI);
-        mColumnIsSystem = c.getColumnIndex(ThemeColumns.IS_SYSTEM);
-        mColumnIsApplied = c.getColumnIndex(ThemeColumns.IS_APPLIED);
-        mColumnPreviewUri = c.getColumnIndex(ThemeColumns.PREVIEW_URI);
-        mColumnHasHostDensity = c.getColumnIndex(ThemeColumns.HAS_HOST_DENSITY);
-        mColumnHasThemePackageScope = c.getColumnIndex(ThemeColumns.HAS_THEME_PACKAGE_SCOPE);
-    }
-
-    /**
-     * @return the id for this item's row in the provider
-     */
-    public long getId() {
-        return mCursor.getLong(mColumnId);
     }
 
     /**
      * {@inheritDoc}
+     * @return the theme Uri, or null if the projection does not include
+     *         both {@link ThemeColumns#THEME_PACKAGE} and
+     *         {@link ThemeColumns#THEME_ID}.
      */
     @Override
     public Uri getUri(Context context) {
+        if (mColumnPackageName < 0 || mColumnThemeId < 0) {
+            return null;
+        }
         return Themes.getThemeUri(context, getPackageName(), getThemeId());
     }
 
     /**
-     * @return the Theme name
-     */
-    public String getName() {
-        return mCursor.getString(mColumnName);
-    }
-
-    /**
-     * Access the name to be displayed for the theme when packages sans
-     * wallpaper and ringtone. For different parts of the UI.
-     * @return the style name
-     */
-    public String getStyleName() {
-        return mCursor.getString(mColumnStyleName);
-    }
-
-    /**
-     * @return the Theme author
-     */
-    public String getAuthor() {
-        return mCursor.getString(mColumnAuthor);
-    }
-
-    /**
-     * @return true if this theme contains DRM content
-     */
-    public boolean isDRMProtected() {
-        return mCursor.getInt(mColumnIsDRM) != 0;
-    }
-
-    /**
-     * @return the String Theme Id
-     */
-    public String getThemeId() {
-        return mCursor.getString(mColumnThemeId);
-    }
-
-    /**
-     * @return this theme's package
-     */
-    public String getPackageName() {
-        return mCursor.getString(mColumnThemePackage);
-    }
-
-    /**
-     * Requests a unique identifier for a wallpaper. Useful to distinguish
-     * different wallpaper items contained in a single theme package. Though
-     * the result appears to be a filename, it should never be treated in
-     * this way. It is merely useful as a unique key to feed a BitmapStore
-     * surrounding this theme package.
-     * @return the wallpaper identifier
+     * @return true if the projection includes the wallpaper and ringtone
+     *         Uri columns, so that their getters describe the theme rather
+     *         than an absent column.
      */
-    public String getWallpaperIdentifier() {
-        return mCursor.getString(mColumnWallpaperName);
+    public boolean hasAssetColumns() {
+        return mColumnWallpaperUri >= 0 && mColumnLockWallpaperUri >= 0 &&
+                mColumnRingtoneUri >= 0 && mColumnNotificationRingtoneUri >= 0;
     }
 
     /**
@@ -188,7 +167,7 @@ public class ThemeItem extends AbstractDAOItem {
      * @return the wallpaper uri, or null if this theme doesn't specify one.
      */
     public Uri getWallpaperUri(Context context) {
-        return parseUriNullSafe(mCursor.getString(mColumnWallpaperUri));
+        return getWallpaperUri();
     }
 
     /**
@@ -197,7 +176,7 @@ public class ThemeItem extends AbstractDAOItem {
      * @return the lockscreen wallpaper uri, or null if this theme doesn't specify one.
      */
     public Uri getLockWallpaperUri(Context context) {
-        return parseUriNullSafe(mCursor.getString(mColumnLockWallpaperUri));
+        return getLockWallpaperUri();
     }
 
     /**
@@ -206,14 +185,7 @@ public class ThemeItem extends AbstractDAOItem {
      * @return the ringtone uri, or null if this theme doesn't specify one.
      */
     public Uri getRingtoneUri(Context context) {
-        return parseUriNullSafe(mCursor.getString(mColumnRingtoneUri));
-    }
-
-    /**
-     * @return the name of the ringtone or null if this theme doesn't specify one.
-     */
-    public String getRingtoneName() {
-        return mCursor.getString(mColumnRingtoneName);
+        return getRingtoneUri();
     }
 
     /**
@@ -222,22 +194,7 @@ public class ThemeItem extends AbstractDAOItem {
      * @return the notification ringtone uri, or null if this theme doesn't specify one.
      */
     public Uri getNotificationRingtoneUri(Context context) {
-        return parseUriNullSafe(mCursor.getString(mColumnNotifRingtoneUri));
-    }
-
-    /**
-     * @return the name of the notification ringtone or null if this theme doesn't specify one.
-     */
-    public String getNotificationRingtoneName() {
-        return mCursor.getString(mColumnNotifRingtoneName);
-    }
-
-    /**
-     * A theme may specify a thumbnail to represent a theme.
-     * @return the thumbnail uri, or null if this theme doesn't specify one.
-     */
-    public Uri getThumbnailUri() {
-        return parseUriNullSafe(mCursor.getString(mColumnThumbnailUri));
+        return getNotificationRingtoneUri();
     }
 
     /**
@@ -248,7 +205,7 @@ public class ThemeItem extends AbstractDAOItem {
      * @return the preview image uri, or null if this theme doesn't specify one.
      */
     public Uri getPreviewUri(int orientation) {
-        Uri uri = parseUriNullSafe(mCursor.getString(mColumnPreviewUri));
+        Uri uri = getPreviewUri();
         if (null != uri) {
             uri = uri.buildUpon().appendQueryParameter(Themes.KEY_ORIENTATION,
                     String.valueOf(orientation)).build();
@@ -265,33 +222,45 @@ public class ThemeItem extends AbstractDAOItem {
      * Tests whether the theme item can be uninstalled. This condition
      * is true for all theme APKs not part of the system image.
      *
-     * @return Returns true if the theme can be uninstalled.
+     * @return Returns true if the theme can be uninstalled, false if it is a
+     *         system theme or the projection does not include
+     *         {@link ThemeColumns#IS_SYSTEM}.
      */
     public boolean isRemovable() {
-        return mCursor.getInt(mColumnIsSystem) == 0;
-    }
-
-    /**
-     * @return true if this theme is currently applied
-     */
-    public boolean isApplied() {
-        return mCursor.getInt(mColumnIsApplied) != 0;
-    }
-
-    /**
-     * @return true if this theme has assets compiled for the current host's
-     *         display ensity.
-     */
-    public boolean hasHostDensity() {
-        return mCursor.getInt(mColumnHasHostDensity) != 0;
+        return !isSystem();
     }
 
     /**
-     * @return true if this theme has assets compiled in the theme package scope
-     *         (0x0a as opposed to 0x7f).
+     * Copies the current row into a {@link ThemeSnapshot} which remains valid
+     * after this item's cursor is moved or closed.
+     * @return a snapshot of the current row.
      */
-    public boolean hasThemePackageScope() {
-        return mCursor.getInt(mColumnHasThemePackageScope) != 0;
+    public ThemeSnapshot toSnapshot() {
+        int flags = 0;
+        if (isDRMProtected()) flags |= ThemeSnapshot.FLAG_DRM;
+        if (!isRemovable()) flags |= ThemeSnapshot.FLAG_SYSTEM;
+        if (isApplied()) flags |= ThemeSnapshot.FLAG_APPLIED;
+        if (hasHostDensity()) flags |= ThemeSnapshot.FLAG_HOST_DENSITY;
+        if (hasThemePackageScope()) flags |= ThemeSnapshot.FLAG_THEME_PACKAGE_SCOPE;
+        if (mColumnPackageName < 0 || mColumnThemeId < 0) flags |= ThemeSnapshot.FLAG_NO_KEY;
+
+        String[] strings = new String[ThemeSnapshot.STRING_COUNT];
+        strings[ThemeSnapshot.STRING_PACKAGE] = getStringNullSafe(mColumnPackageName);
+        strings[ThemeSnapshot.STRING_THEME_ID] = getStringNullSafe(mColumnThemeId);
+        strings[ThemeSnapshot.STRING_NAME] = getStringNullSafe(mColumnName);
+        strings[ThemeSnapshot.STRING_STYLE_NAME] = getStringNullSafe(mColumnStyleName);
+        strings[ThemeSnapshot.STRING_AUTHOR] = getStringNullSafe(mColumnAuthor);
+        strings[ThemeSnapshot.STRING_WALLPAPER_NAME] = getStringNullSafe(mColumnWallpaperIdentifier);
+        strings[ThemeSnapshot.STRING_WALLPAPER_URI] = getStringNullSafe(mColumnWallpaperUri);
+        strings[ThemeSnapshot.STRING_LOCK_WALLPAPER_URI] = getStringNullSafe(mColumnLockWallpaperUri);
+        strings[ThemeSnapshot.STRING_RINGTONE_NAME] = getStringNullSafe(mColumnRingtoneName);
+        strings[ThemeSnapshot.STRING_RINGTONE_URI] = getStringNullSafe(mColumnRingtoneUri);
+        strings[ThemeSnapshot.STRING_NOTIF_RINGTONE_NAME] = getStringNullSafe(mColumnNotificationRingtoneName);
+        strings[ThemeSnapshot.STRING_NOTIF_RINGTONE_URI] = getStringNullSafe(mColumnNotificationRingtoneUri);
+        strings[ThemeSnapshot.STRING_THUMBNAIL_URI] = getStringNullSafe(mColumnThumbnailUri);
+        strings[ThemeSnapshot.STRING_PREVIEW_URI] = getStringNullSafe(mColumnPreviewUri);
+
+        return new ThemeSnapshot(getId(), flags, strings);
     }
 
     /**
@@ -304,10 +273,13 @@ public class ThemeItem extends AbstractDAOItem {
         if (theme == null) {
             return false;
         }
-        if (getPackageName().equals(theme.getThemePackageName()) == false) {
+        if (mColumnPackageName < 0 || mColumnThemeId < 0) {
+            return false;
+        }
+        if (TextUtils.equals(getPackageName(), theme.getThemePackageName()) == false) {
             return false;
         }
-        return theme.getThemeId().equals(getThemeId());
+        return TextUtils.equals(theme.getThemeId(), getThemeId());
     }
 
     public String toString() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+/**
+ * Describes a query over the theme catalog for
+ * {@link Themes#forEachTheme(android.content.Context, ThemeQuery, Themes.ThemeVisitor)}.
+ * By default all themes are visited with all columns in the provider's
+ * default order.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      ThemeQuery query = new ThemeQuery()
+ *              .setProjection(ThemeItem.PROJECTION_LIST)
+ *              .setSelection(ThemeColumns.THEME_PACKAGE + " = ?", packageName)
+ *              .setChunkSize(100);
+ * </pre>
+ */
+public class ThemeQuery {
+    private String[] mProjection;
+    private String mSelection;
+    private String[] mSelectionArgs;
+    private String mSortOrder;
+    private int mChunkSize;
+
+    /**
+     * @param projection the columns to load, or null for all.
+     * @return this query.
+     * @see ThemeItem#PROJECTION_LIST
+     */
+    public ThemeQuery setProjection(String[] projection) {
+        mProjection = projection;
+        return this;
+    }
+
+    /**
+     * @param selection a SQL WHERE clause without the WHERE, or null for
+     *            all themes.
+     * @param selectionArgs values for any ? in selection.
+     * @return this query.
+     */
+    public ThemeQuery setSelection(String selection, String... selectionArgs) {
+        mSelection = selection;
+        mSelectionArgs = (selectionArgs != null && selectionArgs.length > 0 ? selectionArgs : null);
+        return this;
+    }
+
+    /**
+     * @param sortOrder a SQL ORDER BY clause without the ORDER BY, or null for
+     *            the provider's default.
+     * @return this query.
+     */
+    public ThemeQuery setSortOrder(String sortOrder) {
+        mSortOrder = sortOrder;
+        return this;
+    }
+
+    /**
+     * @param chunkSize the number of rows after which
+     *            {@link Themes.ThemeVisitor#onChunkEnd} is called, or 0 to
+     *            call it only once, after the last row.
+     * @return this query.
+     */
+    public ThemeQuery setChunkSize(int chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("chunkSize cannot be negative");
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    String[] getProjection() {
+        return mProjection;
+    }
+
+    String getSelection() {
+        return mSelection;
+    }
+
+    String[] getSelectionArgs() {
+        return mSelectionArgs;
+    }
+
+    String getSortOrder() {
+        return mSortOrder;
+    }
+
+    int getChunkSize() {
+        return mChunkSize;
+    }
+}
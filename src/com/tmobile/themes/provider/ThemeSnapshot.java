@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.ThemeManager;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.CustomTheme;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.TextUtils;
+
+/**
+ * Immutable copy of a single {@link ThemeItem} row which does not hold a
+ * {@link android.database.Cursor}. Accessors mirror those of ThemeItem.
+ * <p>
+ * The snapshot is flat: an id, a set of boolean flags and a fixed table of
+ * strings. It is {@link Parcelable} so that it may be handed between
+ * activities as {@link ThemeManager#EXTRA_THEME_ITEM}, letting the receiver
+ * display the theme without querying the provider.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      // Sender
+ *      ThemeSnapshot.putExtra(intent, item);
+ *
+ *      // Receiver
+ *      ThemeSnapshot theme = ThemeSnapshot.fromIntent(getIntent());
+ * </pre>
+ */
+public final class ThemeSnapshot implements Parcelable {
+    /**
+     * Version of the flattened representation. Readers accept snapshots with
+     * more strings than they know of (trailing strings are ignored) and fewer
+     * (missing strings are null), so this only needs bumping for
+     * incompatible layout changes.
+     */
+    public static final int VERSION = 1;
+
+    static final int FLAG_DRM = 1 << 0;
+    static final int FLAG_SYSTEM = 1 << 1;
+    static final int FLAG_APPLIED = 1 << 2;
+    static final int FLAG_HOST_DENSITY = 1 << 3;
+    static final int FLAG_THEME_PACKAGE_SCOPE = 1 << 4;
+    /* The package or theme id column was absent from the copied row. */
+    static final int FLAG_NO_KEY = 1 << 5;
+
+    static final int STRING_PACKAGE = 0;
+    static final int STRING_THEME_ID = 1;
+    static final int STRING_NAME = 2;
+    static final int STRING_STYLE_NAME = 3;
+    static final int STRING_AUTHOR = 4;
+    static final int STRING_WALLPAPER_NAME = 5;
+    static final int STRING_WALLPAPER_URI = 6;
+    static final int STRING_LOCK_WALLPAPER_URI = 7;
+    static final int STRING_RINGTONE_NAME = 8;
+    static final int STRING_RINGTONE_URI = 9;
+    static final int STRING_NOTIF_RINGTONE_NAME = 10;
+    static final int STRING_NOTIF_RINGTONE_URI = 11;
+    static final int STRING_THUMBNAIL_URI = 12;
+    static final int STRING_PREVIEW_URI = 13;
+    static final int STRING_COUNT = 14;
+
+    private final long mId;
+    private final int mFlags;
+    private final String[] mStrings;
+
+    ThemeSnapshot(long id, int flags, String[] strings) {
+        if (strings.length != STRING_COUNT) {
+            throw new IllegalArgumentException("Expected " + STRING_COUNT + " strings");
+        }
+        mId = id;
+        mFlags = flags;
+        mStrings = strings;
+    }
+
+    /**
+     * Places a snapshot of the current row of item into the intent as
+     * {@link ThemeManager#EXTRA_THEME_ITEM}.
+     * @param intent the intent to fill.
+     * @param item the item positioned at the row to copy.
+     * @return the intent, for chaining.
+     */
+    public static Intent putExtra(Intent intent, ThemeItem item) {
+        return intent.putExtra(ThemeManager.EXTRA_THEME_ITEM, item.toSnapshot());
+    }
+
+    /**
+     * @param intent the intent received.
+     * @return the snapshot placed by {@link #putExtra}, or null if the intent
+     *         does not carry one.
+     */
+    public static ThemeSnapshot fromIntent(Intent intent) {
+        Bundle extras = intent.getExtras();
+        if (extras != null) {
+            Object extra = extras.get(ThemeManager.EXTRA_THEME_ITEM);
+            if (extra instanceof ThemeSnapshot) {
+                return (ThemeSnapshot)extra;
+            }
+        }
+        return null;
+    }
+
+    int getFlags() {
+        return mFlags;
+    }
+
+    String getString(int index) {
+        return mStrings[index];
+    }
+
+    private boolean hasFlag(int flag) {
+        return (mFlags & flag) != 0;
+    }
+
+    /**
+     * @see ThemeItem#getId()
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @see ThemeItem#getUri(Context)
+     */
+    public Uri getUri(Context context) {
+        if (hasFlag(FLAG_NO_KEY)) {
+            return null;
+        }
+        return Themes.getThemeUri(context, getPackageName(), getThemeId());
+    }
+
+    /**
+     * @see ThemeItem#getName()
+     */
+    public String getName() {
+        return mStrings[STRING_NAME];
+    }
+
+    /**
+     * @see ThemeItem#getStyleName()
+     */
+    public String getStyleName() {
+        return mStrings[STRING_STYLE_NAME];
+    }
+
+    /**
+     * @see ThemeItem#getAuthor()
+     */
+    public String getAuthor() {
+        return mStrings[STRING_AUTHOR];
+    }
+
+    /**
+     * @see ThemeItem#isDRMProtected()
+     */
+    public boolean isDRMProtected() {
+        return hasFlag(FLAG_DRM);
+    }
+
+    /**
+     * @see ThemeItem#getThemeId()
+     */
+    public String getThemeId() {
+        return mStrings[STRING_THEME_ID];
+    }
+
+    /**
+     * @see ThemeItem#getPackageName()
+     */
+    public String getPackageName() {
+        return mStrings[STRING_PACKAGE];
+    }
+
+    /**
+     * @see ThemeItem#getWallpaperIdentifier()
+     */
+    public String getWallpaperIdentifier() {
+        return mStrings[STRING_WALLPAPER_NAME];
+    }
+
+    /**
+     * @see ThemeItem#getWallpaperUri(Context)
+     */
+    public Uri getWallpaperUri(Context context) {
+        return AbstractDAOItem.parseUriNullSafe(mStrings[STRING_WALLPAPER_URI]);
+    }
+
+    /**
+     * @see ThemeItem#getLockWallpaperUri(Context)
+     */
+    public Uri getLockWallpaperUri(Context context) {
+        return AbstractDAOItem.parseUriNullSafe(mStrings[STRING_LOCK_WALLPAPER_URI]);
+    }
+
+    /**
+     * @see ThemeItem#getRingtoneUri(Context)
+     */
+    public Uri getRingtoneUri(Context context) {
+        return AbstractDAOItem.parseUriNullSafe(mStrings[STRING_RINGTONE_URI]);
+    }
+
+    /**
+     * @see ThemeItem#getRingtoneName()
+     */
+    public String getRingtoneName() {
+        return mStrings[STRING_RINGTONE_NAME];
+    }
+
+    /**
+     * @see ThemeItem#getNotificationRingtoneUri(Context)
+     */
+    public Uri getNotificationRingtoneUri(Context context) {
+        return AbstractDAOItem.parseUriNullSafe(mStrings[STRING_NOTIF_RINGTONE_URI]);
+    }
+
+    /**
+     * @see ThemeItem#getNotificationRingtoneName()
+     */
+    public String getNotificationRingtoneName() {
+        return mStrings[STRING_NOTIF_RINGTONE_NAME];
+    }
+
+    /**
+     * @see ThemeItem#getThumbnailUri()
+     */
+    public Uri getThumbnailUri() {
+        return AbstractDAOItem.parseUriNullSafe(mStrings[STRING_THUMBNAIL_URI]);
+    }
+
+    /**
+     * @see ThemeItem#getPreviewUri(int)
+     */
+    public Uri getPreviewUri(int orientation) {
+        Uri uri = AbstractDAOItem.parseUriNullSafe(mStrings[STRING_PREVIEW_URI]);
+        if (null != uri) {
+            uri = uri.buildUpon().appendQueryParameter(Themes.KEY_ORIENTATION,
+                    String.valueOf(orientation)).build();
+        }
+        return uri;
+    }
+
+    /**
+     * @see ThemeItem#isRemovable()
+     */
+    public boolean isRemovable() {
+        return !hasFlag(FLAG_SYSTEM);
+    }
+
+    /**
+     * @see ThemeItem#isApplied()
+     */
+    public boolean isApplied() {
+        return hasFlag(FLAG_APPLIED);
+    }
+
+    /**
+     * @see ThemeItem#hasHostDensity()
+     */
+    public boolean hasHostDensity() {
+        return hasFlag(FLAG_HOST_DENSITY);
+    }
+
+    /**
+     * @see ThemeItem#hasThemePackageScope()
+     */
+    public boolean hasThemePackageScope() {
+        return hasFlag(FLAG_THEME_PACKAGE_SCOPE);
+    }
+
+    /**
+     * @see ThemeItem#equals(CustomTheme)
+     */
+    public boolean equals(CustomTheme theme) {
+        if (theme == null || hasFlag(FLAG_NO_KEY)) {
+            return false;
+        }
+        if (TextUtils.equals(getPackageName(), theme.getThemePackageName()) == false) {
+            return false;
+        }
+        return TextUtils.equals(theme.getThemeId(), getThemeId());
+    }
+
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+
+        b.append('{');
+        b.append("pkg=").append(getPackageName()).append("; ");
+        b.append("themeId=").append(getThemeId()).append("; ");
+        b.append("name=").append(getName()).append("; ");
+        b.append("drm=").append(isDRMProtected());
+        b.append('}');
+
+        return b.toString();
+    }
+
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(VERSION);
+        dest.writeLong(mId);
+        dest.writeInt(mFlags);
+        dest.writeInt(STRING_COUNT);
+        for (int i = 0; i < STRING_COUNT; i++) {
+            dest.writeString(mStrings[i]);
+        }
+    }
+
+    public static final Parcelable.Creator<ThemeSnapshot> CREATOR =
+            new Parcelable.Creator<ThemeSnapshot>() {
+        public ThemeSnapshot createFromParcel(Parcel source) {
+            int version = source.readInt();
+            if (version > VERSION) {
+                throw new IllegalArgumentException("Unsupported ThemeSnapshot version " + version);
+            }
+            long id = source.readLong();
+            int flags = source.readInt();
+            int count = source.readInt();
+            String[] strings = new String[STRING_COUNT];
+            for (int i = 0; i < count; i++) {
+                String value = source.readString();
+                if (i < STRING_COUNT) {
+                    strings[i] = value;
+                }
+            }
+            return new ThemeSnapshot(id, flags, strings);
+        }
+
+        public ThemeSnapshot[] newArray(int size) {
+            return new ThemeSnapshot[size];
+        }
+    };
+}
@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.res.CustomTheme;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 /**
@@ -37,6 +38,13 @@ public class Themes {
     public static final Uri CONTENT_URI =
         Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Opened read-only by {@link SharedThemeCatalog} to map the catalog the
+     * provider publishes in shared memory.
+     */
+    public static final Uri SHARED_CATALOG_URI =
+        Uri.parse("content://" + AUTHORITY + "/catalog/shared");
+
     public static final String KEY_ORIENTATION = "orientation";
 
     private Themes() {}
@@ -73,10 +81,150 @@ public class Themes {
      * @param context the context of the caller.
      * @param projection the Projection for the {@link Cursor}.
      * @return a {@link Cursor} for all themes in the provider using the specified projection or null if provider is empty.
+     * @see ThemeItem#PROJECTION_LIST
+     * @see ThemeItem#PROJECTION_APPLY
+     * @see ThemeItem#PROJECTION_DETAIL
      */
     public static Cursor listThemes(Context context, String[] projection) {
+        return listThemes(context, projection, null);
+    }
+
+    /**
+     * Gets a {@link Cursor} for all themes in the provider using the specified
+     * projection and sort order.
+     * @param context the context of the caller.
+     * @param projection the Projection for the {@link Cursor}.
+     * @param sortOrder the sort order, or null for the provider's default.
+     * @return a {@link Cursor} for all themes in the provider or null if provider is empty.
+     */
+    public static Cursor listThemes(Context context, String[] projection, String sortOrder) {
         return context.getContentResolver().query(ThemeColumns.CONTENT_PLURAL_URI,
-                projection, null, null, null);
+                projection, null, null, sortOrder);
+    }
+
+    /**
+     * Streams the themes matching query through visitor using a single
+     * {@link ThemeItem}, so that catalogs of any size are processed in
+     * constant memory. The cursor is always closed before returning, even if
+     * the visitor throws.
+     *
+     * <h2>Usage</h2>
+     * <pre  class="prettyprint">
+     *      Themes.forEachTheme(context, new ThemeQuery(), new Themes.ThemeVisitor() {
+     *          public boolean visit(ThemeItem item) {
+     *              // Do something with the item; return false to stop.
+     *              return true;
+     *          }
+     *      });
+     * </pre>
+     *
+     * @param context the context of the caller.
+     * @param query the themes and columns to visit.
+     * @param visitor receives each theme, and the end of each chunk.
+     * @return statistics about the iteration.
+     */
+    public static IterationStats forEachTheme(Context context, ThemeQuery query,
+            ThemeVisitor visitor) {
+        long start = SystemClock.uptimeMillis();
+        int rows = 0;
+        boolean complete = true;
+        Cursor c = context.getContentResolver().query(ThemeColumns.CONTENT_PLURAL_URI,
+                query.getProjection(), query.getSelection(), query.getSelectionArgs(),
+                query.getSortOrder());
+        if (c != null) {
+            try {
+                int chunkSize = query.getChunkSize();
+                ThemeItem item = new ThemeItem(c);
+                while (c.moveToNext()) {
+                    rows++;
+                    if (!visitor.visit(item)) {
+                        complete = false;
+                        break;
+                    }
+                    if (chunkSize > 0 && rows % chunkSize == 0 && !visitor.onChunkEnd(rows)) {
+                        complete = false;
+                        break;
+                    }
+                }
+                if (complete && (chunkSize == 0 || rows % chunkSize != 0)) {
+                    visitor.onChunkEnd(rows);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return new IterationStats(rows, SystemClock.uptimeMillis() - start, complete);
+    }
+
+    /**
+     * Receives themes from {@link Themes#forEachTheme}.
+     */
+    public static abstract class ThemeVisitor {
+        /**
+         * @param item the current theme. The item is reused for every row
+         *            and must not be retained or closed; use
+         *            {@link ThemeItem#toSnapshot()} to keep a copy.
+         * @return true to continue, false to stop.
+         */
+        public abstract boolean visit(ThemeItem item);
+
+        /**
+         * Called after every {@link ThemeQuery#setChunkSize chunk} of rows
+         * and after the last row. The default implementation does nothing.
+         * @param rowsVisited the number of rows visited so far.
+         * @return true to continue, false to stop.
+         */
+        public boolean onChunkEnd(int rowsVisited) {
+            return true;
+        }
+    }
+
+    /**
+     * The outcome of {@link Themes#forEachTheme}.
+     */
+    public static class IterationStats {
+        private final int mRowCount;
+        private final long mElapsedMillis;
+        private final boolean mComplete;
+
+        IterationStats(int rowCount, long elapsedMillis, boolean complete) {
+            mRowCount = rowCount;
+            mElapsedMillis = elapsedMillis;
+            mComplete = complete;
+        }
+
+        /**
+         * @return the number of rows visited.
+         */
+        public int getRowCount() {
+            return mRowCount;
+        }
+
+        /**
+         * @return the time taken, including the query.
+         */
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * @return the number of rows visited per second.
+         */
+        public double getRowsPerSecond() {
+            return mRowCount * 1000.0 / Math.max(mElapsedMillis, 1);
+        }
+
+        /**
+         * @return false if the visitor stopped the iteration early.
+         */
+        public boolean isComplete() {
+            return mComplete;
+        }
+
+        public String toString() {
+            return "{rows=" + mRowCount + "; elapsed=" + mElapsedMillis + "ms; rowsPerSecond=" +
+                    (long)getRowsPerSecond() + "; complete=" + mComplete + "}";
+        }
     }
 
     /**
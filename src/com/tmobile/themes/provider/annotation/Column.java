@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a getter of a {@link DAO} interface to a cursor column. Supported
+ * return types are String, android.net.Uri, long, int and boolean. When the
+ * column is absent from the cursor's projection the generated getter returns
+ * null, or {@link #defaultValue} for primitive types.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Column {
+    /**
+     * Name of the column.
+     */
+    String value();
+
+    /**
+     * Java literal returned by primitive getters when the column is absent,
+     * or empty for 0 or false.
+     */
+    String defaultValue() default "";
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface from which the com.tmobile.themes.daogen annotation
+ * processor generates an {@link com.tmobile.themes.provider.AbstractDAOItem}
+ * subclass. Every method of the interface must take no arguments and be
+ * annotated with {@link Column}.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      &#64;DAO(className = "ProfileItem", contentUri = "content://...")
+ *      public interface ProfileColumnsDAO {
+ *          &#64;Column("_id") long getId();
+ *          &#64;Column("name") String getName();
+ *          &#64;Column("wallpaper_uri") Uri getWallpaperUri();
+ *      }
+ * </pre>
+ *
+ * <p>The generated class lives in the same package as the interface,
+ * implements it and caches column indices statically so that constructing
+ * an item does not look up every column again. If {@link #contentUri} is
+ * given the class is concrete, with {@code getUri} appending the row's
+ * {@code _id} to it, and provides {@code getInstance} factories; otherwise it
+ * is abstract and {@code getUri} is left to a hand-written subclass.</p>
+ *
+ * <p>If {@link #snapshotClassName} is given, an immutable class implementing
+ * the interface is generated as well, and the DAO gains a
+ * {@code toSnapshot()} method copying the current row into it. Values
+ * derived from several columns cannot be expressed as a {@link Column}; name
+ * a {@link #snapshotSuperclass} to add them to the snapshot.</p>
+ *
+ * <p>Doc comments on the interface methods are copied to the generated
+ * getters.</p>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface DAO {
+    /**
+     * Simple name of the generated class.
+     */
+    String className();
+
+    /**
+     * Base content Uri of the items, or empty to generate an abstract class.
+     */
+    String contentUri() default "";
+
+    /**
+     * Simple name of the generated snapshot class, or empty for none.
+     */
+    String snapshotClassName() default "";
+
+    /**
+     * Class the generated snapshot extends, or empty for none. It must be
+     * abstract, visible from the interface's package and have a no-argument
+     * constructor.
+     */
+    String snapshotSuperclass() default "";
+}
@@ -22,6 +22,9 @@ import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.widget.CursorAdapter;
 
@@ -31,6 +34,9 @@ import android.widget.CursorAdapter;
  * visual themes/profiles with helpful accessors. AbstractDAOItemAdapter will automatically manage the cursor.
  */
 public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends CursorAdapter {
+    private static final String TAG = "AbstractDAOItemAdapter";
+    private static final boolean DEBUG = false;
+
     protected T mDAOItem;
     private final LayoutInflater mInflater;
     private final Context mContext;
@@ -41,13 +47,166 @@ public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends
      */
     private boolean mMarking;
     private Uri mExistingUri;
+    private Uri mAppliedUri;
     private int mMarkedPosition = -1;
 
+    private FillTask mFillTask;
+
     public AbstractDAOItemAdapter(Activity context, Cursor c, boolean autoRequery) {
         super(context, c, autoRequery);
         mContext = context;
         mInflater = LayoutInflater.from(context);
+        long start = SystemClock.uptimeMillis();
         allocInternal(c);
+        if (DEBUG && c != null) {
+            Log.d(TAG, "construct: first fill took " + (SystemClock.uptimeMillis() - start) +
+                    "ms on the main thread");
+        }
+    }
+
+    /**
+     * Queries and fills the adapter's cursor on a background thread. The
+     * adapter should have been constructed with a null cursor, and so
+     * reports a count of 0 until the cursor is swapped in with a single
+     * {@link #changeCursor} once its first window has been filled, after
+     * which {@link #onFillComplete} is called. The cursor is managed by the
+     * activity, as with {@link Activity#managedQuery}.
+     * <p>
+     * Must be called on the main thread, typically from a subclass
+     * constructor. The activity must call {@link #cancelFill()} from its
+     * onDestroy, as a fill completing after the activity has been destroyed
+     * for a configuration change would otherwise leak its cursor.
+     */
+    protected void fillAsync(Activity activity, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder) {
+        cancelFill();
+        mFillTask = new FillTask(activity, uri, projection, selection, selectionArgs, sortOrder);
+        mFillTask.execute();
+    }
+
+    /**
+     * Abandons a fill started by {@link #fillAsync}, closing its cursor if
+     * it has already been queried. Must be called on the main thread.
+     */
+    public void cancelFill() {
+        if (mFillTask != null) {
+            mFillTask.cancel(false);
+            mFillTask = null;
+        }
+    }
+
+    /**
+     * @return true if a fill started by {@link #fillAsync} has neither
+     *         completed nor been cancelled.
+     */
+    protected boolean isFillPending() {
+        return mFillTask != null;
+    }
+
+    /**
+     * Called on the main thread once a fill started by {@link #fillAsync}
+     * has swapped its cursor in. The default implementation does nothing.
+     * @param c the new cursor.
+     */
+    protected void onFillComplete(Cursor c) {
+        /* Nothing... */
+    }
+
+    private class FillTask extends AsyncTask<Void, Void, Cursor> {
+        private final Activity mActivity;
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+
+        /* Set once queried, so that cancellation can close it. */
+        private Cursor mResult;
+        private boolean mDelivered;
+        private long mStartTime;
+
+        FillTask(Activity activity, Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            mActivity = activity;
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mStartTime = SystemClock.uptimeMillis();
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor c = mActivity.getContentResolver().query(mUri, mProjection, mSelection,
+                    mSelectionArgs, mSortOrder);
+            if (c != null) {
+                /* Forces the first window fill off the main thread. */
+                c.getCount();
+            }
+            synchronized (this) {
+                mResult = c;
+                if (isCancelled()) {
+                    closeResultLocked();
+                    return null;
+                }
+            }
+            if (DEBUG) {
+                Log.d(TAG, "fill: query and count took " +
+                        (SystemClock.uptimeMillis() - mStartTime) + "ms in the background");
+            }
+            return c;
+        }
+
+        @Override
+        protected void onCancelled() {
+            synchronized (this) {
+                closeResultLocked();
+            }
+        }
+
+        private void closeResultLocked() {
+            if (mResult != null && !mDelivered) {
+                mResult.close();
+            }
+            mResult = null;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor c) {
+            if (c == null) {
+                if (mFillTask == this) {
+                    mFillTask = null;
+                }
+                return;
+            }
+            if (mFillTask != this) {
+                /* Cancelled after the query had already completed. */
+                c.close();
+                return;
+            }
+            mFillTask = null;
+            if (mActivity.isFinishing() || getCursor() != null) {
+                /* Gone, or superseded by an explicit changeCursor. */
+                c.close();
+                return;
+            }
+            long start = SystemClock.uptimeMillis();
+            synchronized (this) {
+                mDelivered = true;
+            }
+            mActivity.startManagingCursor(c);
+            changeCursor(c);
+            onFillComplete(c);
+            if (DEBUG) {
+                Log.d(TAG, "fill: swap took " + (SystemClock.uptimeMillis() - start) +
+                        "ms on the main thread");
+            }
+        }
     }
 
     protected Context getContext() {
@@ -73,10 +232,28 @@ public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends
         allocInternal(getCursor());
         super.notifyDataSetChanged();
         if (mMarking) {
-            markCurrentOrExistingItem(mExistingUri, false);
+            markCurrentOrExistingItem(mExistingUri != null ? mExistingUri : reconcileAppliedUri(),
+                    false);
         }
     }
 
+    /**
+     * @return the Uri given to {@link #setAppliedUri} while the provider has
+     *         yet to report it as applied; otherwise the provider's applied
+     *         item, after which the provider is followed again.
+     */
+    private Uri reconcileAppliedUri() {
+        if (mAppliedUri == null) {
+            return null;
+        }
+        Uri providerUri = getExistingOrCurrentUri(getContext(), null);
+        if (mAppliedUri.equals(providerUri)) {
+            mAppliedUri = null;
+            return providerUri;
+        }
+        return mAppliedUri;
+    }
+
     @Override
     public void notifyDataSetInvalidated() {
         mDAOItem = null;
@@ -103,6 +280,7 @@ public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends
     public void setUseAutomaticMarking(boolean enabled, Uri existingUri) {
         mMarking = enabled;
         mExistingUri = existingUri;
+        mAppliedUri = null;
 
         if (enabled) {
             /*
@@ -115,6 +293,35 @@ public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends
         }
     }
 
+    /**
+     * Moves the automatic mark to a newly applied item without querying the
+     * provider for the currently applied item. Intended to be called from a
+     * {@link com.tmobile.themes.ThemeChangeHub.Listener}. Has no effect unless
+     * automatic marking is enabled without an existing Uri.
+     * <p>
+     * The Uri is remembered and used in place of the provider's applied
+     * item when the mark is recomputed after later data set changes, so the
+     * mark does not revert while {@link
+     * com.tmobile.themes.provider.Themes.ThemeColumns#IS_APPLIED} catches up.
+     * It is forgotten as soon as the provider reports the same item, so
+     * that later applies by other clients are marked from the provider.
+     *
+     * @param appliedUri the newly applied item, or null to look it up.
+     */
+    public void setAppliedUri(Uri appliedUri) {
+        if (mMarking && mExistingUri == null) {
+            mAppliedUri = appliedUri;
+            int oldPosition = mMarkedPosition;
+            /*
+             * Notify through the superclass so that the mark just set is not
+             * recomputed by our own notifyDataSetChanged.
+             */
+            if (markCurrentOrExistingItem(appliedUri, false) != oldPosition) {
+                super.notifyDataSetChanged();
+            }
+        }
+    }
+
     /**
      * Mark the applied item's position.
      *
@@ -214,6 +421,10 @@ public abstract class AbstractDAOItemAdapter<T extends AbstractDAOItem> extends
 
     /**
      * Gets an {@link AbstractDAOItem} with it's cursor positioned at the given postion.
+     * <p>
+     * The returned item shares the adapter's cursor, which is repositioned
+     * on every call and every bind, so it must only be used on the main
+     * thread and only until the next call.
      * @param position the position to get.
      * @return the item or null if the position is invalid.
      */
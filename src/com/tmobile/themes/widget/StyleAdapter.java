@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.widget;
+
+import com.tmobile.themes.provider.StyleItem;
+import com.tmobile.themes.provider.Themes;
+
+import android.app.Activity;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+
+/**
+ * Re-usable adapter which presents the styles of all currently installed
+ * themes, sorted by style name. Rather than querying the provider itself it
+ * shares the cursor of an existing {@link ThemeAdapter}, so a theme chooser
+ * and a style chooser together cost a single query. The style list follows
+ * the theme adapter whenever it requeries or changes its cursor, including
+ * when an asynchronous fill completes. The hosting activity should call
+ * {@link #detachFromThemes()} from its onDestroy.
+ * @author T-Mobile USA
+ */
+public abstract class StyleAdapter extends AbstractDAOItemAdapter<StyleItem> {
+    private final ThemeAdapter mThemes;
+
+    /* The theme cursor currently wrapped. */
+    private Cursor mThemesCursor;
+
+    private boolean mDetached;
+
+    /**
+     * @param context the hosting activity.
+     * @param themes the adapter whose cursor to share. Its projection must
+     *            include the theme package and id, and should include
+     *            {@link Themes.ThemeColumns#STYLE_NAME} and
+     *            {@link Themes.ThemeColumns#IS_APPLIED}.
+     */
+    public StyleAdapter(Activity context, ThemeAdapter themes) {
+        super(context, wrapThemes(themes.getCursor()), false);
+        mThemes = themes;
+        mThemesCursor = themes.getCursor();
+        themes.registerDataSetObserver(mThemesObserver);
+    }
+
+    /**
+     * Rewraps the theme adapter's cursor when it is replaced. Requeries of
+     * the same cursor are handled by StyleCursor itself.
+     */
+    private final DataSetObserver mThemesObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            followThemes();
+        }
+
+        @Override
+        public void onInvalidated() {
+            followThemes();
+        }
+    };
+
+    /**
+     * Stops following the theme adapter and empties this adapter, releasing
+     * its copy of the style rows. The theme adapter and its cursor are left
+     * untouched. Must be called on the main thread.
+     */
+    public void detachFromThemes() {
+        if (!mDetached) {
+            mDetached = true;
+            mThemes.unregisterDataSetObserver(mThemesObserver);
+            mThemesCursor = null;
+            changeCursor(null);
+        }
+    }
+
+    private void followThemes() {
+        Cursor c = mThemes.getCursor();
+        if (c != mThemesCursor) {
+            mThemesCursor = c;
+            changeCursor(wrapThemes(c));
+        }
+    }
+
+    private static Cursor wrapThemes(Cursor themes) {
+        return (themes != null ? new StyleCursor(themes) : null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected StyleItem getCurrentlyAppliedItem(Context context) {
+        return StyleItem.getInstance(Themes.getAppliedTheme(context));
+    }
+
+    @Override
+    protected void onAllocInternal(Cursor c) {
+        mDAOItem = new StyleItem(c);
+    }
+
+    /**
+     * Finds the applied style in the shared cursor when possible, falling back
+     * to querying the provider only if the shared projection lacks
+     * {@link Themes.ThemeColumns#IS_APPLIED}.
+     */
+    @Override
+    public int findExistingOrCurrentItem(Context context, Uri existingUri) {
+        if (existingUri == null) {
+            int n = getCount();
+            while (n-- > 0) {
+                if (getDAOItem(n).isApplied()) {
+                    return n;
+                }
+            }
+        }
+        return super.findExistingOrCurrentItem(context, existingUri);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.widget;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Presents the rows of a theme cursor owned by someone else (typically a
+ * {@link ThemeAdapter}) ordered by style name. The rows are copied out of the
+ * shared cursor whenever its owner requeries, restoring its position
+ * afterwards, so positioning and reading this cursor never moves the shared
+ * one. The underlying cursor is never requeried or closed through this
+ * wrapper.
+ */
+class StyleCursor extends AbstractCursor {
+    private static final String[][] NO_ROWS = new String[0][];
+
+    private final Cursor mThemes;
+    private final String[] mColumnNames;
+    private final int mColumnStyleName;
+    private final int mColumnName;
+    private String[][] mRows = NO_ROWS;
+
+    public StyleCursor(Cursor themes) {
+        mThemes = themes;
+        mColumnNames = themes.getColumnNames();
+        mColumnStyleName = themes.getColumnIndex(ThemeColumns.STYLE_NAME);
+        mColumnName = themes.getColumnIndex(ThemeColumns.NAME);
+        mThemes.registerDataSetObserver(mThemesObserver);
+        copyRows();
+    }
+
+    /**
+     * Copies every row of the shared cursor as strings and sorts them by
+     * style name, falling back to the theme name. Theme rows are a handful
+     * of short columns, so the copy is cheap next to the query that
+     * produced them.
+     */
+    private void copyRows() {
+        int columnCount = mColumnNames.length;
+        int saved = mThemes.getPosition();
+        ArrayList<String[]> rows = new ArrayList<String[]>(mThemes.getCount());
+        if (mThemes.moveToFirst()) {
+            do {
+                String[] row = new String[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = mThemes.getString(i);
+                }
+                rows.add(row);
+            } while (mThemes.moveToNext());
+        }
+        mThemes.moveToPosition(saved);
+        Collections.sort(rows, new Comparator<String[]>() {
+            public int compare(String[] a, String[] b) {
+                return String.CASE_INSENSITIVE_ORDER.compare(getSortKey(a), getSortKey(b));
+            }
+        });
+        mRows = rows.toArray(new String[rows.size()][]);
+        mPos = -1;
+    }
+
+    private String getSortKey(String[] row) {
+        String key = (mColumnStyleName >= 0 ? row[mColumnStyleName] : null);
+        if (TextUtils.isEmpty(key) && mColumnName >= 0) {
+            key = row[mColumnName];
+        }
+        return (key != null ? key : "");
+    }
+
+    private final DataSetObserver mThemesObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            requery();
+        }
+
+        @Override
+        public void onInvalidated() {
+            mRows = NO_ROWS;
+            mPos = -1;
+            deactivate();
+        }
+    };
+
+    @Override
+    public int getCount() {
+        return mRows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mRows[mPos][column];
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short)getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int)getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        String value = mRows[mPos][column];
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long)getDouble(column);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float)getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        String value = mRows[mPos][column];
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mRows[mPos][column] == null;
+    }
+
+    /**
+     * Re-copies the shared cursor's current contents. The shared cursor
+     * itself is not requeried.
+     */
+    @Override
+    public boolean requery() {
+        if (isClosed()) {
+            return false;
+        }
+        copyRows();
+        return super.requery();
+    }
+
+    /**
+     * Detaches from the shared cursor without closing it.
+     */
+    @Override
+    public void close() {
+        if (!isClosed()) {
+            mThemes.unregisterDataSetObserver(mThemesObserver);
+            mRows = NO_ROWS;
+            mPos = -1;
+        }
+        super.close();
+    }
+}
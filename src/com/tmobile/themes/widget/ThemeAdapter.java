@@ -16,6 +16,9 @@
 
 package com.tmobile.themes.widget;
 
+import com.tmobile.themes.ThemeChangeHub;
+import com.tmobile.themes.ThemesCacheGovernor;
+import com.tmobile.themes.provider.ThemeCatalog;
 import com.tmobile.themes.provider.ThemeItem;
 import com.tmobile.themes.provider.Themes;
 import com.tmobile.themes.provider.Themes.ThemeColumns;
@@ -24,6 +27,10 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.CustomTheme;
 import android.database.Cursor;
+import android.net.Uri;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 /**
  * Re-usable adapter which fills itself with all currently installed visual
@@ -31,13 +38,92 @@ import android.database.Cursor;
  * @author T-Mobile USA
  */
 public abstract class ThemeAdapter extends AbstractDAOItemAdapter<ThemeItem> {
+    /*
+     * Copy of the adapter's contents for readers off the main thread. May
+     * be dropped by the ThemesCacheGovernor from any thread.
+     */
+    private volatile ThemeCatalog mCatalog;
+
+    /* Registered weakly, so held here for the life of the adapter. */
+    private final ThemesCacheGovernor.ManagedCache mCatalogCache =
+            new ThemesCacheGovernor.ManagedCache() {
+        public long getByteCount() {
+            ThemeCatalog catalog = mCatalog;
+            return (catalog != null ? catalog.getByteCount() : 0);
+        }
+
+        public void trimTo(long maxBytes) {
+            if (getByteCount() > maxBytes) {
+                /* Rebuilt on the next requestCatalog. */
+                mCatalog = null;
+            }
+        }
+    };
+
+    /* Waiting for an asynchronous fill to deliver the first cursor. */
+    private final ArrayList<CatalogCallback> mPendingCallbacks =
+            new ArrayList<CatalogCallback>();
+
+    /* Non-null while following the ThemeChangeHub instead of auto-requery. */
+    private HubListener mHubListener;
+
     public ThemeAdapter(Activity context) {
-        super(context, loadThemes(context), true);
+        this(context, null);
     }
 
-    private static Cursor loadThemes(Activity context) {
+    /**
+     * @param context the hosting activity.
+     * @param projection the projection to load, typically
+     *            {@link ThemeItem#PROJECTION_LIST}, or null for all columns.
+     */
+    public ThemeAdapter(Activity context, String[] projection) {
+        this(context, projection, false);
+    }
+
+    /**
+     * @param context the hosting activity.
+     * @param projection the projection to load, typically
+     *            {@link ThemeItem#PROJECTION_LIST}, or null for all columns.
+     * @param asyncFill if true, the themes are queried and counted on a
+     *            background thread and the adapter is empty until they
+     *            arrive, keeping the provider round trip and the first
+     *            window fill off the main thread.
+     */
+    public ThemeAdapter(Activity context, String[] projection, boolean asyncFill) {
+        this(context, projection, asyncFill, false);
+    }
+
+    /**
+     * @param context the hosting activity.
+     * @param projection the projection to load, typically
+     *            {@link ThemeItem#PROJECTION_LIST}, or null for all columns.
+     * @param asyncFill see {@link #ThemeAdapter(Activity, String[], boolean)}.
+     * @param useChangeHub if true, the adapter does not observe its cursor
+     *            for content changes. It instead requeries once per
+     *            coalesced {@link ThemeChangeHub.Listener#onCatalogChanged},
+     *            and moves the automatic mark on
+     *            {@link ThemeChangeHub.Listener#onThemeApplied} without a
+     *            provider query. Call {@link #detachFromThemeChangeHub()}
+     *            when the adapter is no longer used.
+     */
+    public ThemeAdapter(Activity context, String[] projection, boolean asyncFill,
+            boolean useChangeHub) {
+        super(context, asyncFill ? null : loadThemes(context, projection), !useChangeHub);
+        ThemesCacheGovernor.getInstance().registerWeakly("ThemeAdapter",
+                ThemesCacheGovernor.PRIORITY_NORMAL, mCatalogCache);
+        if (useChangeHub) {
+            mHubListener = new HubListener(this, ThemeChangeHub.getInstance(context));
+            mHubListener.mHub.addListener(mHubListener);
+        }
+        if (asyncFill) {
+            fillAsync(context, ThemeColumns.CONTENT_PLURAL_URI, projection, null, null,
+                    ThemeColumns.NAME);
+        }
+    }
+
+    private static Cursor loadThemes(Activity context, String[] projection) {
         return context.managedQuery(ThemeColumns.CONTENT_PLURAL_URI,
-                null, null, ThemeColumns.NAME);
+                projection, null, ThemeColumns.NAME);
     }
 
     /**
@@ -53,6 +139,151 @@ public abstract class ThemeAdapter extends AbstractDAOItemAdapter<ThemeItem> {
         mDAOItem = new ThemeItem(c);
     }
 
+    @Override
+    public void notifyDataSetChanged() {
+        mCatalog = null;
+        super.notifyDataSetChanged();
+        if (!mPendingCallbacks.isEmpty() && getCursor() != null) {
+            ArrayList<CatalogCallback> callbacks =
+                    new ArrayList<CatalogCallback>(mPendingCallbacks);
+            mPendingCallbacks.clear();
+            for (CatalogCallback callback : callbacks) {
+                requestCatalog(callback);
+            }
+        }
+    }
+
+    @Override
+    public void notifyDataSetInvalidated() {
+        mCatalog = null;
+        super.notifyDataSetInvalidated();
+    }
+
+    /**
+     * Delivers catalogs requested with {@link ThemeAdapter#requestCatalog}.
+     */
+    public interface CatalogCallback {
+        /**
+         * Called on the main thread.
+         * @param catalog the adapter's contents.
+         */
+        public void onCatalogLoaded(ThemeCatalog catalog);
+    }
+
+    /**
+     * Returns the immutable copy of the adapter's current contents if one
+     * has already been built by {@link #requestCatalog}. Unlike
+     * {@link #getDAOItem(int)}, whose shared cursor is moved by every bind,
+     * the catalog may be read from any thread.
+     *
+     * @return the current contents, or null if they have not been copied
+     *         since the last data set change or were dropped under memory
+     *         pressure.
+     */
+    public ThemeCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * Delivers an immutable copy of the adapter's contents, whose positions
+     * match adapter positions. The copy is made from the rows the adapter's
+     * own cursor already holds, so it costs no provider query, and is reused
+     * until the next data set change. The cursor's position is restored
+     * afterwards.
+     * <p>
+     * Must be called on the main thread. The callback is called on the main
+     * thread, immediately unless an asynchronous fill has not delivered the
+     * adapter's first cursor yet, in which case it is called once it has.
+     */
+    public void requestCatalog(CatalogCallback callback) {
+        ThemeCatalog catalog = mCatalog;
+        if (catalog == null) {
+            Cursor c = getCursor();
+            if (c == null && isFillPending()) {
+                mPendingCallbacks.add(callback);
+                return;
+            }
+            catalog = copyCatalog(c);
+            mCatalog = catalog;
+            ThemesCacheGovernor.getInstance().enforceBudget();
+        }
+        callback.onCatalogLoaded(catalog);
+    }
+
+    private static ThemeCatalog copyCatalog(Cursor c) {
+        if (c == null || c.isClosed()) {
+            return ThemeCatalog.fromCursor(null);
+        }
+        int position = c.getPosition();
+        try {
+            return ThemeCatalog.fromCursor(c);
+        } finally {
+            c.moveToPosition(position);
+        }
+    }
+
+    /**
+     * Stops following the {@link ThemeChangeHub}. Has no effect unless the
+     * adapter was constructed to use it. Must be called on the main thread.
+     */
+    public void detachFromThemeChangeHub() {
+        if (mHubListener != null) {
+            mHubListener.mHub.removeListener(mHubListener);
+            mHubListener = null;
+        }
+    }
+
+    /**
+     * Forwards hub events to the adapter. Holds the adapter weakly so that
+     * an adapter which is never detached does not leak its activity; the
+     * listener then removes itself on the next event.
+     */
+    private static class HubListener implements ThemeChangeHub.Listener {
+        private final WeakReference<ThemeAdapter> mAdapter;
+        final ThemeChangeHub mHub;
+
+        HubListener(ThemeAdapter adapter, ThemeChangeHub hub) {
+            mAdapter = new WeakReference<ThemeAdapter>(adapter);
+            mHub = hub;
+        }
+
+        private ThemeAdapter getAdapter() {
+            ThemeAdapter adapter = mAdapter.get();
+            if (adapter == null) {
+                mHub.removeListener(this);
+            }
+            return adapter;
+        }
+
+        public void onThemeApplied(Uri themeUri) {
+            ThemeAdapter adapter = getAdapter();
+            if (adapter != null) {
+                adapter.setAppliedUri(themeUri);
+            }
+        }
+
+        public void onCatalogChanged() {
+            ThemeAdapter adapter = getAdapter();
+            if (adapter != null) {
+                Cursor c = adapter.getCursor();
+                if (c != null && !c.isClosed()) {
+                    /* The adapter's DataSetObserver notifies on requery. */
+                    c.requery();
+                }
+            }
+        }
+
+        public void onPackageUpdated(String packageName) {
+            /* Followed by a catalog change. */
+            getAdapter();
+        }
+
+        public void onPackageRemoved(String packageName) {
+            /* Followed by a catalog change. */
+            getAdapter();
+        }
+    }
+
     /** @deprecated use {@link #getDAOItem(int)}. */
     public ThemeItem getTheme(int position) {
         return getDAOItem(position);
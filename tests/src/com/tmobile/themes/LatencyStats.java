@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Collects the durations of repeated operations in a load test and reports
+ * their percentiles.
+ *
+ * <h2>Usage</h2>
+ * <pre  class="prettyprint">
+ *      LatencyStats stats = new LatencyStats("findItem");
+ *      for (int i = 0; i < 100; i++) {
+ *          long start = stats.start();
+ *          adapter.findItem(context, uri);
+ *          stats.stop(start);
+ *      }
+ *      stats.report();
+ *      assertTrue(stats.toString(), stats.getPercentileMillis(95) < 50);
+ * </pre>
+ */
+public class LatencyStats {
+    private static final String TAG = "LatencyStats";
+
+    private final String mName;
+    private long[] mSamples = new long[64];
+    private int mCount;
+
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return a start time to pass to {@link #stop}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since start.
+     */
+    public void stop(long start) {
+        long elapsed = System.nanoTime() - start;
+        if (mCount == mSamples.length) {
+            long[] samples = new long[mCount * 2];
+            System.arraycopy(mSamples, 0, samples, 0, mCount);
+            mSamples = samples;
+        }
+        mSamples[mCount++] = elapsed;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the duration below which the given percentage of the samples
+     *         fall, in milliseconds, using the nearest-rank method.
+     */
+    public double getPercentileMillis(double percentile) {
+        if (mCount == 0) {
+            throw new IllegalStateException("No samples recorded for " + mName);
+        }
+        long[] sorted = new long[mCount];
+        System.arraycopy(mSamples, 0, sorted, 0, mCount);
+        Arrays.sort(sorted);
+        int rank = (int)Math.ceil(percentile / 100 * mCount);
+        return sorted[Math.max(0, Math.min(mCount - 1, rank - 1))] / 1000000.0;
+    }
+
+    /**
+     * Logs the 50th, 95th and 99th percentiles.
+     */
+    public void report() {
+        Log.i(TAG, toString());
+    }
+
+    public String toString() {
+        if (mCount == 0) {
+            return mName + ": no samples";
+        }
+        return String.format("%s: n=%d p50=%.3fms p95=%.3fms p99=%.3fms", mName, mCount,
+                getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Exercises {@link ThemesCacheGovernor} with fake caches on a plain JVM.
+ */
+public class ThemesCacheGovernorTest extends TestCase {
+    private static final long BUDGET = 1000;
+
+    private static final int[] LEVELS = new int[] {
+        ThemesCacheGovernor.TRIM_MEMORY_RUNNING_MODERATE,
+        ThemesCacheGovernor.TRIM_MEMORY_RUNNING_LOW,
+        ThemesCacheGovernor.TRIM_MEMORY_RUNNING_CRITICAL,
+        ThemesCacheGovernor.TRIM_MEMORY_UI_HIDDEN,
+        ThemesCacheGovernor.TRIM_MEMORY_BACKGROUND,
+        ThemesCacheGovernor.TRIM_MEMORY_MODERATE,
+        ThemesCacheGovernor.TRIM_MEMORY_COMPLETE,
+    };
+
+    private ThemesCacheGovernor mGovernor;
+
+    /* Names of the caches in the order they were trimmed. */
+    private final ArrayList<String> mTrimmed = new ArrayList<String>();
+
+    private FakeCache mLow;
+    private FakeCache mNormal;
+    private FakeCache mHigh;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGovernor = ThemesCacheGovernor.createForTest(BUDGET);
+        /* Registered out of priority order on purpose. */
+        mHigh = register("high", ThemesCacheGovernor.PRIORITY_HIGH, 300);
+        mLow = register("low", ThemesCacheGovernor.PRIORITY_LOW, 300);
+        mNormal = register("normal", ThemesCacheGovernor.PRIORITY_NORMAL, 300);
+    }
+
+    private FakeCache register(String name, int priority, long bytes) {
+        FakeCache cache = new FakeCache(name, bytes);
+        mGovernor.register(name, priority, cache);
+        return cache;
+    }
+
+    public void testUsageIsInTrimOrder() {
+        ThemesCacheGovernor.Usage[] usage = mGovernor.getUsage();
+        assertEquals(3, usage.length);
+        assertUsage(usage[0], "low", ThemesCacheGovernor.PRIORITY_LOW, 300);
+        assertUsage(usage[1], "normal", ThemesCacheGovernor.PRIORITY_NORMAL, 300);
+        assertUsage(usage[2], "high", ThemesCacheGovernor.PRIORITY_HIGH, 300);
+        assertEquals(900, mGovernor.getTotalByteCount());
+    }
+
+    public void testTargetsShrinkWithSeverity() {
+        long previous = mGovernor.getTargetBytes(0);
+        assertEquals(BUDGET, previous);
+        for (int level : LEVELS) {
+            long target = mGovernor.getTargetBytes(level);
+            assertTrue("level " + level + " targets " + target + " after " + previous,
+                    target <= previous);
+            previous = target;
+        }
+        assertEquals(BUDGET * 3 / 4,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(BUDGET / 2,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(BUDGET / 4,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(BUDGET / 4,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(BUDGET / 4,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_BACKGROUND));
+        assertEquals(BUDGET / 8,
+                mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_MODERATE));
+        assertEquals(0, mGovernor.getTargetBytes(ThemesCacheGovernor.TRIM_MEMORY_COMPLETE));
+    }
+
+    public void testLowestPriorityIsTrimmedFirst() {
+        /* 900 held, 750 allowed: only the low priority cache gives way. */
+        long[] totals = mGovernor.simulatePressure(
+                ThemesCacheGovernor.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(750, totals[0]);
+        assertEquals(150, mLow.getByteCount());
+        assertEquals(300, mNormal.getByteCount());
+        assertEquals(300, mHigh.getByteCount());
+        assertEquals(1, mTrimmed.size());
+        assertEquals("low", mTrimmed.get(0));
+    }
+
+    public void testHigherPrioritiesTrimmedOnlyWhenNeeded() {
+        /* 250 allowed: low and normal are emptied before high gives way. */
+        long[] totals = mGovernor.simulatePressure(
+                ThemesCacheGovernor.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(BUDGET / 4, totals[0]);
+        assertEquals(0, mLow.getByteCount());
+        assertEquals(0, mNormal.getByteCount());
+        assertEquals(250, mHigh.getByteCount());
+        assertEquals("low", mTrimmed.get(0));
+        assertEquals("normal", mTrimmed.get(1));
+        assertEquals("high", mTrimmed.get(2));
+    }
+
+    public void testSimulatedPressureNeverExceedsTargets() {
+        long[] totals = mGovernor.simulatePressure(LEVELS);
+        assertEquals(LEVELS.length, totals.length);
+        for (int i = 0; i < LEVELS.length; i++) {
+            assertTrue("level " + LEVELS[i] + " left " + totals[i],
+                    totals[i] <= mGovernor.getTargetBytes(LEVELS[i]));
+            if (i > 0) {
+                assertTrue(totals[i] <= totals[i - 1]);
+            }
+        }
+        assertEquals(0, totals[LEVELS.length - 1]);
+        for (ThemesCacheGovernor.Usage usage : mGovernor.getUsage()) {
+            assertEquals(usage.getName(), 0, usage.getByteCount());
+        }
+    }
+
+    public void testBudgetIsEnforcedAfterGrowth() {
+        mNormal.setByteCount(800);
+        mGovernor.enforceBudget();
+        assertEquals(BUDGET, mGovernor.getTotalByteCount());
+        assertEquals(0, mLow.getByteCount());
+        assertEquals(700, mNormal.getByteCount());
+        assertEquals(300, mHigh.getByteCount());
+    }
+
+    public void testUnregisteredCacheIsNotTrimmed() {
+        mGovernor.unregister(mLow);
+        assertEquals(2, mGovernor.getUsage().length);
+        mGovernor.onLowMemory();
+        assertEquals(300, mLow.getByteCount());
+        assertEquals(0, mGovernor.getTotalByteCount());
+    }
+
+    private static void assertUsage(ThemesCacheGovernor.Usage usage, String name,
+            int priority, long byteCount) {
+        assertEquals(name, usage.getName());
+        assertEquals(priority, usage.getPriority());
+        assertEquals(byteCount, usage.getByteCount());
+    }
+
+    private class FakeCache implements ThemesCacheGovernor.ManagedCache {
+        private final String mName;
+        private long mByteCount;
+
+        FakeCache(String name, long byteCount) {
+            mName = name;
+            mByteCount = byteCount;
+        }
+
+        void setByteCount(long byteCount) {
+            mByteCount = byteCount;
+        }
+
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        public void trimTo(long maxBytes) {
+            mTrimmed.add(mName);
+            mByteCount = Math.min(mByteCount, maxBytes);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+
+/**
+ * Stands in for the theme provider in load tests. Serves
+ * {@link ThemeItem#PROJECTION_DETAIL} rows for a configurable number of
+ * themes, with every string column padded to a configurable length, and
+ * optionally sleeps on each {@link #requery} to simulate the provider round
+ * trip.
+ * <p>
+ * Row i belongs to package {@link #getPackageName(int)} and theme id
+ * {@link #getThemeId(int)}, so tests can compute the Uri of any row. Row 0
+ * is applied.
+ */
+public class SyntheticThemeCursor extends MatrixCursor {
+    private final long mLatencyMillis;
+    private int mRequeryCount;
+
+    /**
+     * @param count the number of themes.
+     * @param stringLength the minimum length of every string column.
+     * @param latencyMillis time to sleep on each requery.
+     */
+    public SyntheticThemeCursor(int count, int stringLength, long latencyMillis) {
+        super(ThemeItem.PROJECTION_DETAIL, count);
+        mLatencyMillis = latencyMillis;
+        for (int i = 0; i < count; i++) {
+            addRow(newRow(i, stringLength));
+        }
+    }
+
+    public static String getPackageName(int position) {
+        return "com.example.theme" + position;
+    }
+
+    public static String getThemeId(int position) {
+        return "theme" + position;
+    }
+
+    private static String pad(String value, int length) {
+        if (value.length() >= length) {
+            return value;
+        }
+        StringBuilder b = new StringBuilder(length);
+        b.append(value);
+        while (b.length() < length) {
+            b.append('x');
+        }
+        return b.toString();
+    }
+
+    /* Must match the order of ThemeItem.PROJECTION_DETAIL. */
+    private static Object[] newRow(int i, int stringLength) {
+        String uri = "content://com.example.theme" + i + "/";
+        return new Object[] {
+            (long)i,
+            getPackageName(i),
+            getThemeId(i),
+            pad("Theme " + i, stringLength),
+            pad("Style " + i, stringLength),
+            pad("Author " + i, stringLength),
+            (i % 10 == 0 ? 1 : 0),
+            pad("wallpaper" + i, stringLength),
+            pad(uri + "wallpaper", stringLength),
+            pad(uri + "lock_wallpaper", stringLength),
+            pad("Ringtone " + i, stringLength),
+            pad(uri + "ringtone", stringLength),
+            pad("Notification " + i, stringLength),
+            pad(uri + "notification", stringLength),
+            pad(uri + "thumbnail", stringLength),
+            pad(uri + "preview", stringLength),
+            (i < 3 ? 1 : 0),
+            (i == 0 ? 1 : 0),
+            1,
+            1,
+        };
+    }
+
+    /**
+     * @return the number of requeries served so far.
+     */
+    public int getRequeryCount() {
+        return mRequeryCount;
+    }
+
+    @Override
+    public boolean requery() {
+        mRequeryCount++;
+        if (mLatencyMillis > 0) {
+            SystemClock.sleep(mLatencyMillis);
+        }
+        return super.requery();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.provider.Themes.ThemeColumns;
+
+import android.database.MatrixCursor;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans {@link ThemeCatalog}s on background threads while the cursor it was
+ * copied from is moved by a shared {@link ThemeItem}, as
+ * {@link com.tmobile.themes.widget.ThemeAdapter} does when binding.
+ */
+public class ThemeCatalogConcurrencyTest extends TestCase {
+    private static final int THEME_COUNT = 500;
+    private static final int READER_COUNT = 4;
+    private static final long DURATION = 2000;
+
+    private static final String[] COLUMNS = new String[] {
+        ThemeColumns._ID,
+        ThemeColumns.THEME_PACKAGE,
+        ThemeColumns.THEME_ID,
+        ThemeColumns.NAME,
+    };
+
+    private MatrixCursor mCursor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCursor = new MatrixCursor(COLUMNS, THEME_COUNT);
+        for (int i = 0; i < THEME_COUNT; i++) {
+            mCursor.addRow(new Object[] { (long)i, "pkg" + i, "theme" + i, "Theme " + i });
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCursor.close();
+        super.tearDown();
+    }
+
+    public void testCopyIsIndependentOfCursorPosition() {
+        ThemeCatalog catalog = ThemeCatalog.fromCursor(mCursor);
+        assertEquals(THEME_COUNT, catalog.size());
+        mCursor.moveToPosition(THEME_COUNT - 1);
+        for (int i = 0; i < THEME_COUNT; i++) {
+            assertRow(catalog.get(i), i);
+        }
+    }
+
+    public void testBackgroundScansDuringBinding() throws Exception {
+        final ThemeCatalog catalog = ThemeCatalog.fromCursor(mCursor);
+        final long deadline = System.currentTimeMillis() + DURATION;
+        final AtomicInteger corruptReads = new AtomicInteger();
+        final AtomicLong scans = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] readers = new Thread[READER_COUNT];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            for (int i = 0; i < catalog.size(); i++) {
+                                if (!isRow(catalog.get(i), i)) {
+                                    corruptReads.incrementAndGet();
+                                }
+                            }
+                            int probe = (int)(scans.get() % THEME_COUNT);
+                            if (catalog.findTheme("pkg" + probe, "theme" + probe) != probe) {
+                                corruptReads.incrementAndGet();
+                            }
+                            scans.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "ThemeCatalogReader" + r);
+            readers[r].start();
+        }
+
+        /* Bind like an adapter: one shared item, moved to every position. */
+        ThemeItem item = new ThemeItem(mCursor);
+        long binds = 0;
+        while (System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < THEME_COUNT; i++) {
+                item.setPosition((i * 7) % THEME_COUNT);
+                assertEquals((i * 7) % THEME_COUNT, item.getId());
+                binds++;
+            }
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(0, corruptReads.get());
+        assertTrue("No scans completed", scans.get() > 0);
+        assertTrue("No binds completed", binds > 0);
+    }
+
+    private static boolean isRow(ThemeSnapshot theme, int i) {
+        return theme.getId() == i && ("pkg" + i).equals(theme.getPackageName()) &&
+                ("theme" + i).equals(theme.getThemeId()) &&
+                ("Theme " + i).equals(theme.getName());
+    }
+
+    private static void assertRow(ThemeSnapshot theme, int i) {
+        assertTrue("Unexpected row " + theme + " at " + i, isRow(theme, i));
+    }
+}
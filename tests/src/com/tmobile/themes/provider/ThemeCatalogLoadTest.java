@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.provider;
+
+import com.tmobile.themes.LatencyStats;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies, encodes, decodes and searches catalogs of a size seen only on our
+ * largest devices, and fails if the 95th percentile latency of any step
+ * regresses past its threshold. Percentiles are logged under the
+ * LatencyStats tag.
+ */
+public class ThemeCatalogLoadTest extends TestCase {
+    private static final int THEME_COUNT = 3000;
+    private static final int STRING_LENGTH = 48;
+    private static final int ITERATIONS = 20;
+    private static final int LOOKUPS = 200;
+
+    /* Regression thresholds for the 95th percentile, in milliseconds. */
+    private static final double MAX_COPY_MILLIS = 400;
+    private static final double MAX_ENCODE_MILLIS = 400;
+    private static final double MAX_DECODE_MILLIS = 400;
+    private static final double MAX_DECODE_ROW_MILLIS = 1;
+    private static final double MAX_FIND_MILLIS = 5;
+
+    private SyntheticThemeCursor mCursor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCursor = new SyntheticThemeCursor(THEME_COUNT, STRING_LENGTH, 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCursor.close();
+        super.tearDown();
+    }
+
+    private static void assertBelow(LatencyStats stats, double maxMillis) {
+        stats.report();
+        assertTrue(stats + " exceeds p95 threshold of " + maxMillis + "ms",
+                stats.getPercentileMillis(95) <= maxMillis);
+    }
+
+    public void testCopyFromCursor() {
+        LatencyStats stats = new LatencyStats("ThemeCatalog.fromCursor/" + THEME_COUNT);
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = stats.start();
+            ThemeCatalog catalog = ThemeCatalog.fromCursor(mCursor);
+            stats.stop(start);
+            assertEquals(THEME_COUNT, catalog.size());
+        }
+        assertBelow(stats, MAX_COPY_MILLIS);
+    }
+
+    public void testEncodeAndDecode() throws Exception {
+        ThemeCatalog catalog = ThemeCatalog.fromCursor(mCursor);
+        LatencyStats encodeStats = new LatencyStats("ThemeCatalogCodec.encode/" + THEME_COUNT);
+        LatencyStats decodeStats = new LatencyStats("ThemeCatalogCodec.decode/" + THEME_COUNT);
+        byte[] encoded = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = encodeStats.start();
+            encoded = ThemeCatalogCodec.encode(catalog);
+            encodeStats.stop(start);
+
+            start = decodeStats.start();
+            ThemeCatalog decoded = ThemeCatalogCodec.decode(ByteBuffer.wrap(encoded));
+            decodeStats.stop(start);
+            assertEquals(catalog.getContentHash(), decoded.getContentHash());
+        }
+        assertBelow(encodeStats, MAX_ENCODE_MILLIS);
+        assertBelow(decodeStats, MAX_DECODE_MILLIS);
+
+        /* Random access, as a reader of a shared catalog does per bind. */
+        ByteBuffer buf = ByteBuffer.wrap(encoded);
+        LatencyStats rowStats = new LatencyStats("ThemeCatalogCodec.decodeRow");
+        for (int i = 0; i < LOOKUPS; i++) {
+            int position = (i * 7919) % THEME_COUNT;
+            long start = rowStats.start();
+            ThemeSnapshot theme = ThemeCatalogCodec.decodeRow(buf, 0, position);
+            rowStats.stop(start);
+            assertEquals(SyntheticThemeCursor.getPackageName(position), theme.getPackageName());
+        }
+        assertBelow(rowStats, MAX_DECODE_ROW_MILLIS);
+    }
+
+    public void testFindTheme() {
+        ThemeCatalog catalog = ThemeCatalog.fromCursor(mCursor);
+        LatencyStats stats = new LatencyStats("ThemeCatalog.findTheme/" + THEME_COUNT);
+        for (int i = 0; i < LOOKUPS; i++) {
+            int position = (i * 7919) % THEME_COUNT;
+            String packageName = SyntheticThemeCursor.getPackageName(position);
+            String themeId = SyntheticThemeCursor.getThemeId(position);
+            long start = stats.start();
+            int found = catalog.findTheme(packageName, themeId);
+            stats.stop(start);
+            assertEquals(position, found);
+        }
+        assertBelow(stats, MAX_FIND_MILLIS);
+        assertEquals(0, catalog.findAppliedTheme());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.widget;
+
+import com.tmobile.themes.provider.ThemeCatalog;
+import com.tmobile.themes.provider.ThemeItem;
+import com.tmobile.themes.provider.ThemeSnapshot;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.ActivityUnitTestCase;
+import android.test.UiThreadTest;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+
+/**
+ * Drives {@link ThemeAdapter#requestCatalog} against an adapter holding a
+ * synthetic cursor, checking that the catalog is copied from the adapter's
+ * own rows rather than from a separate query.
+ */
+public class ThemeAdapterCatalogTest extends ActivityUnitTestCase<Activity> {
+    private static final int THEME_COUNT = 20;
+
+    private ThemeAdapter mAdapter;
+
+    public ThemeAdapterCatalogTest() {
+        super(Activity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        startActivity(new Intent(Intent.ACTION_MAIN), null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mAdapter != null) {
+            mAdapter.cancelFill();
+            mAdapter.changeCursor(null);
+        }
+        super.tearDown();
+    }
+
+    private static class TestThemeAdapter extends ThemeAdapter {
+        TestThemeAdapter(Activity context) {
+            super(context, ThemeItem.PROJECTION_LIST, true);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return new View(context);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            /* Nothing... */
+        }
+    }
+
+    private static class RecordingCallback implements ThemeAdapter.CatalogCallback {
+        final ArrayList<ThemeCatalog> mCatalogs = new ArrayList<ThemeCatalog>();
+
+        public void onCatalogLoaded(ThemeCatalog catalog) {
+            mCatalogs.add(catalog);
+        }
+    }
+
+    private static Cursor newThemes(String prefix, int count) {
+        MatrixCursor c = new MatrixCursor(ThemeItem.PROJECTION_LIST, count);
+        for (int i = 0; i < count; i++) {
+            c.addRow(new Object[] {
+                (long)i, prefix + ".pkg" + i, "theme" + i, "Theme " + i, null, "Author",
+                null, 0,
+            });
+        }
+        return c;
+    }
+
+    private void assertMatchesAdapter(ThemeCatalog catalog) {
+        assertEquals(mAdapter.getCount(), catalog.size());
+        for (int i = 0; i < catalog.size(); i++) {
+            ThemeSnapshot theme = catalog.get(i);
+            ThemeItem item = mAdapter.getDAOItem(i);
+            assertEquals(item.getPackageName(), theme.getPackageName());
+            assertEquals(item.getThemeId(), theme.getThemeId());
+            assertEquals(item.getName(), theme.getName());
+        }
+    }
+
+    @UiThreadTest
+    public void testRequestWaitsForAsyncFill() {
+        mAdapter = new TestThemeAdapter(getActivity());
+        RecordingCallback callback = new RecordingCallback();
+        mAdapter.requestCatalog(callback);
+        assertTrue(callback.mCatalogs.isEmpty());
+
+        /* Supersedes the fill, which closes its cursor when it completes. */
+        mAdapter.changeCursor(newThemes("a", THEME_COUNT));
+        assertEquals(1, callback.mCatalogs.size());
+        assertMatchesAdapter(callback.mCatalogs.get(0));
+    }
+
+    @UiThreadTest
+    public void testCatalogCopiesAdapterRows() {
+        mAdapter = new TestThemeAdapter(getActivity());
+        Cursor c = newThemes("a", THEME_COUNT);
+        mAdapter.changeCursor(c);
+        c.moveToPosition(THEME_COUNT / 2);
+
+        RecordingCallback callback = new RecordingCallback();
+        mAdapter.requestCatalog(callback);
+        assertEquals(1, callback.mCatalogs.size());
+        ThemeCatalog catalog = callback.mCatalogs.get(0);
+        assertEquals(THEME_COUNT / 2, c.getPosition());
+        assertMatchesAdapter(catalog);
+
+        /* Reused until the data set changes. */
+        mAdapter.requestCatalog(callback);
+        assertSame(catalog, callback.mCatalogs.get(1));
+        assertSame(catalog, mAdapter.getCatalog());
+
+        mAdapter.changeCursor(newThemes("b", THEME_COUNT / 2));
+        assertNull(mAdapter.getCatalog());
+        mAdapter.requestCatalog(callback);
+        ThemeCatalog changed = callback.mCatalogs.get(2);
+        assertNotSame(catalog, changed);
+        assertEquals(THEME_COUNT / 2, changed.size());
+        assertMatchesAdapter(changed);
+    }
+}
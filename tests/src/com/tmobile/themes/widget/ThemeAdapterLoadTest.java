@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010, T-Mobile USA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.themes.widget;
+
+import com.tmobile.themes.LatencyStats;
+import com.tmobile.themes.provider.SyntheticThemeCursor;
+import com.tmobile.themes.provider.ThemeItem;
+import com.tmobile.themes.provider.Themes;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ActivityUnitTestCase;
+import android.test.UiThreadTest;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Drives a {@link ThemeAdapter} over a {@link SyntheticThemeCursor} holding
+ * thousands of themes through scroll binding, marking, {@link
+ * ThemeAdapter#findItem} and requery storms, and fails if the 95th
+ * percentile latency of any of them regresses past its threshold.
+ * Percentiles are logged under the LatencyStats tag.
+ * <p>
+ * {@link Themes#markAppliedTheme} writes to the real provider, so applies
+ * are driven the way the {@link com.tmobile.themes.ThemeChangeHub} delivers
+ * them, through {@link ThemeAdapter#setAppliedUri}.
+ */
+public class ThemeAdapterLoadTest extends ActivityUnitTestCase<Activity> {
+    private static final int THEME_COUNT = 3000;
+    private static final int STRING_LENGTH = 48;
+    private static final long REQUERY_LATENCY_MILLIS = 20;
+    private static final int ITERATIONS = 20;
+
+    /* Regression thresholds for the 95th percentile, in milliseconds. */
+    private static final double MAX_BIND_MILLIS = 1;
+    private static final double MAX_FIND_MILLIS = 150;
+    private static final double MAX_MARK_MILLIS = 150;
+    private static final double MAX_REQUERY_MILLIS = REQUERY_LATENCY_MILLIS + 200;
+
+    private SyntheticThemeCursor mCursor;
+    private ThemeAdapter mAdapter;
+
+    public ThemeAdapterLoadTest() {
+        super(Activity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        startActivity(new Intent(Intent.ACTION_MAIN), null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mAdapter != null) {
+            mAdapter.detachFromThemeChangeHub();
+            mAdapter.changeCursor(null);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Binds the columns of {@link ThemeItem#PROJECTION_LIST}, as a theme
+     * chooser's list item does, and reports the first synthetic theme as
+     * applied.
+     */
+    private static class TestThemeAdapter extends ThemeAdapter {
+        TestThemeAdapter(Activity context) {
+            super(context, ThemeItem.PROJECTION_DETAIL, true, true);
+            cancelFill();
+        }
+
+        @Override
+        protected ThemeItem getCurrentlyAppliedItem(Context context) {
+            return ThemeItem.getInstance(new SyntheticThemeCursor(1, STRING_LENGTH, 0));
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return new View(context);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            ThemeItem item = mDAOItem;
+            view.setTag(new Object[] {
+                item.getName(), item.getAuthor(), item.getThumbnailUri(), item.isApplied(),
+            });
+        }
+    }
+
+    private void createAdapter() {
+        mCursor = new SyntheticThemeCursor(THEME_COUNT, STRING_LENGTH, REQUERY_LATENCY_MILLIS);
+        mAdapter = new TestThemeAdapter(getActivity());
+        mAdapter.changeCursor(mCursor);
+    }
+
+    private Uri getThemeUri(int position) {
+        return Themes.getThemeUri(getActivity(), SyntheticThemeCursor.getPackageName(position),
+                SyntheticThemeCursor.getThemeId(position));
+    }
+
+    private static void assertBelow(LatencyStats stats, double maxMillis) {
+        stats.report();
+        assertTrue(stats + " exceeds p95 threshold of " + maxMillis + "ms",
+                stats.getPercentileMillis(95) <= maxMillis);
+    }
+
+    @UiThreadTest
+    public void testScrollBinding() {
+        createAdapter();
+        LatencyStats stats = new LatencyStats("ThemeAdapter.getView/" + THEME_COUNT);
+        View convertView = null;
+        /* Fling from top to bottom and back, recycling a single view. */
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < THEME_COUNT; i++) {
+                int position = (pass == 0 ? i : THEME_COUNT - 1 - i);
+                long start = stats.start();
+                convertView = mAdapter.getView(position, convertView, null);
+                stats.stop(start);
+            }
+        }
+        assertBelow(stats, MAX_BIND_MILLIS);
+    }
+
+    @UiThreadTest
+    public void testFindItem() {
+        createAdapter();
+        LatencyStats stats = new LatencyStats("ThemeAdapter.findItem/" + THEME_COUNT);
+        for (int i = 0; i < ITERATIONS; i++) {
+            /* The scan runs from the end, so early rows are the worst case. */
+            int position = i % 10;
+            Uri uri = getThemeUri(position);
+            long start = stats.start();
+            int found = mAdapter.findItem(getActivity(), uri);
+            stats.stop(start);
+            assertEquals(position, found);
+        }
+        assertBelow(stats, MAX_FIND_MILLIS);
+    }
+
+    @UiThreadTest
+    public void testMarkingAppliedThemes() {
+        createAdapter();
+        LatencyStats enableStats = new LatencyStats("ThemeAdapter.setUseAutomaticMarking/" +
+                THEME_COUNT);
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = enableStats.start();
+            mAdapter.setUseAutomaticMarking(true, null);
+            enableStats.stop(start);
+            assertEquals(0, mAdapter.getMarkedPosition());
+        }
+        assertBelow(enableStats, MAX_MARK_MILLIS);
+
+        LatencyStats appliedStats = new LatencyStats("ThemeAdapter.setAppliedUri/" +
+                THEME_COUNT);
+        for (int i = 1; i <= ITERATIONS; i++) {
+            Uri uri = getThemeUri(i);
+            long start = appliedStats.start();
+            mAdapter.setAppliedUri(uri);
+            appliedStats.stop(start);
+            assertEquals(i, mAdapter.getMarkedPosition());
+        }
+        assertBelow(appliedStats, MAX_MARK_MILLIS);
+    }
+
+    @UiThreadTest
+    public void testRequeryStorm() {
+        createAdapter();
+        mAdapter.setUseAutomaticMarking(true, null);
+        LatencyStats stats = new LatencyStats("ThemeAdapter requery/" + THEME_COUNT);
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = stats.start();
+            /* Delivered to the adapter through its DataSetObserver. */
+            assertTrue(mCursor.requery());
+            stats.stop(start);
+            assertEquals(0, mAdapter.getMarkedPosition());
+        }
+        assertEquals(ITERATIONS, mCursor.getRequeryCount());
+        assertBelow(stats, MAX_REQUERY_MILLIS);
+    }
+}